@@ -24,6 +24,7 @@ import org.springframework.util.Assert;
 
 import ch.rasc.wampspring.broker.SimpleBrokerMessageHandler;
 import ch.rasc.wampspring.message.EventMessage;
+import ch.rasc.wampspring.message.RawJson;
 
 /**
  * A messenger that allows the calling code to send {@link EventMessage}s to either the
@@ -43,6 +44,10 @@ import ch.rasc.wampspring.message.EventMessage;
  * 	}
  * }
  * </pre>
+ *
+ * <p>
+ * An event that is already encoded as JSON, e.g. read from a cache, can be passed as a
+ * {@link RawJson} to all methods. It is copied verbatim into the EVENT frames.
  */
 public class EventMessenger {
 
@@ -149,10 +154,9 @@ public class EventMessenger {
 	public void sendToDirect(String topicURI, Object event,
 			Set<String> webSocketSessionIds) {
 		if (webSocketSessionIds != null) {
+			EventMessage originEventMessage = new EventMessage(topicURI, event);
 			for (String webSocketSessionId : webSocketSessionIds) {
-				EventMessage eventMessage = new EventMessage(topicURI, event);
-				eventMessage.setWebSocketSessionId(webSocketSessionId);
-				sendDirect(eventMessage);
+				sendDirect(new EventMessage(originEventMessage, webSocketSessionId));
 			}
 		}
 	}
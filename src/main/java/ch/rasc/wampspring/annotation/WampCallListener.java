@@ -21,8 +21,6 @@ import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.lang.annotation.Target;
 
-import ch.rasc.wampspring.config.DefaultWampConfiguration;
-
 /**
  * Annotation that denotes a method that is called when the server receives a CALL message
  * and the procURI matches one of the listed values of the annotation ({@link #value()}).
@@ -66,8 +64,18 @@ public @interface WampCallListener {
 	 * is required.
 	 * <p>
 	 * Takes precedence over {@link WampAuthenticated} and the global setting
-	 * {@link DefaultWampConfiguration#authenticationRequired()}
+	 * {@link ch.rasc.wampspring.config.DefaultWampConfiguration#authenticationRequired()}
 	 */
 	boolean[] authenticated() default {};
 
+	/**
+	 * Maximum number of calls of this method that are in progress at the same time,
+	 * including calls with a pending asynchronous result. Additional calls are answered
+	 * immediately with a CALLERROR message. 0 means no limit.
+	 * <p>
+	 * A limit for all calls is specified with
+	 * {@link ch.rasc.wampspring.config.DefaultWampConfiguration#maxConcurrentCalls()}
+	 */
+	int maxConcurrentCalls() default 0;
+
 }
@@ -0,0 +1,80 @@
+/**
+ * Copyright 2014-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ch.rasc.wampspring.broker;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.springframework.web.socket.TextMessage;
+
+import com.fasterxml.jackson.core.JsonFactory;
+
+import ch.rasc.wampspring.message.EventMessage;
+
+/**
+ * Placeholder for the newest not yet delivered event of a conflated topic for one
+ * WebSocket session. There is at most one placeholder per topic and session on the way
+ * to the client. Newer events only replace the value in the shared slot, and
+ * {@link #toTextMessage(JsonFactory)} encodes the value that is current when the
+ * message is written to the WebSocket session.
+ *
+ * @see SimpleBrokerMessageHandler#setConflatedTopicPatterns(java.util.Collection)
+ */
+public final class ConflatedEventMessage extends EventMessage {
+
+	private final AtomicReference<EventMessage> pendingEvent;
+
+	ConflatedEventMessage(EventMessage eventMessage,
+			AtomicReference<EventMessage> pendingEvent) {
+		super(eventMessage, eventMessage.getWebSocketSessionId());
+		this.pendingEvent = pendingEvent;
+	}
+
+	/**
+	 * Frees the slot after the placeholder could not be sent, so the next event of the
+	 * topic sends a new placeholder.
+	 */
+	void discard() {
+		this.pendingEvent.set(null);
+	}
+
+	/**
+	 * Encodes the newest event and frees the slot, so the next event of the topic sends a
+	 * new placeholder.
+	 */
+	@Override
+	public TextMessage toTextMessage(JsonFactory jsonFactory) throws IOException {
+		EventMessage newestEvent = this.pendingEvent.getAndSet(null);
+		if (newestEvent != null) {
+			return newestEvent.toTextMessage(jsonFactory);
+		}
+		return super.toTextMessage(jsonFactory);
+	}
+
+	/**
+	 * Encodes the newest event with the given topicURI and frees the slot.
+	 */
+	@Override
+	public TextMessage toTextMessage(JsonFactory jsonFactory, String topicURI)
+			throws IOException {
+		EventMessage newestEvent = this.pendingEvent.getAndSet(null);
+		if (newestEvent != null) {
+			return newestEvent.toTextMessage(jsonFactory, topicURI);
+		}
+		return super.toTextMessage(jsonFactory, topicURI);
+	}
+
+}
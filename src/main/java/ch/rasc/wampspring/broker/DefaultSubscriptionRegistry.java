@@ -15,6 +15,9 @@
  */
 package ch.rasc.wampspring.broker;
 
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.Map;
@@ -24,11 +27,13 @@ import java.util.concurrent.ConcurrentMap;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
-import org.springframework.messaging.Message;
+import org.springframework.util.AntPathMatcher;
+import org.springframework.util.Assert;
 import org.springframework.util.PathMatcher;
 
 import ch.rasc.wampspring.message.PubSubMessage;
 import ch.rasc.wampspring.message.SubscribeMessage;
+import ch.rasc.wampspring.message.TopicTable;
 import ch.rasc.wampspring.message.UnsubscribeMessage;
 
 /**
@@ -46,26 +51,75 @@ public class DefaultSubscriptionRegistry implements SubscriptionRegistry {
 
 	private final PathMatcher pathMatcher;
 
+	private final TopicTable topicTable;
+
 	private final DestinationCache destinationCache = new DestinationCache();
 
 	protected final Log logger = LogFactory.getLog(getClass());
 
+	/** Number of locks that serialize modifications, must be a power of two */
+	private static final int LOCK_STRIPES = 64;
+
 	// webSocketSessionId -> destinations
 	private final ConcurrentMap<String, Set<String>> sessionDestinations = new ConcurrentHashMap<>();
 
-	private final Object monitor = new Object();
+	private final SessionIdTable sessionIdTable = new SessionIdTable();
+
+	// destination -> slots of the webSocketSessionIds, only destinations that are not a
+	// pattern. Changed in place, lookups read an immutable snapshot.
+	private final ConcurrentMap<String, SubscriberSlots> literalSubscriptions = new ConcurrentHashMap<>();
+
+	// destination pattern -> slots of the webSocketSessionIds
+	private final ConcurrentMap<String, SubscriberSlots> patternSubscriptions = new ConcurrentHashMap<>();
+
+	/**
+	 * Modifications of one session are serialized by a session lock, the subscriber sets
+	 * of a destination by a destination lock. Pattern subscriptions keep holding the
+	 * destination lock while they update the destination cache, so the cache sees the
+	 * changes of one pattern in order. Locks are always acquired in the order session,
+	 * destination, cache. Lookups don't lock at all.
+	 */
+	private final Object[] sessionLocks = newLocks();
+
+	private final Object[] destinationLocks = newLocks();
 
 	public DefaultSubscriptionRegistry(PathMatcher pathMatcher) {
+		this(pathMatcher, new TopicTable());
+	}
+
+	/**
+	 * @param pathMatcher the matcher for the topic patterns
+	 * @param topicTable the table the subscribed topics are registered in
+	 */
+	public DefaultSubscriptionRegistry(PathMatcher pathMatcher, TopicTable topicTable) {
+		Assert.notNull(topicTable, "'topicTable' must not be null");
 		this.pathMatcher = pathMatcher;
+		this.topicTable = topicTable;
 	}
 
 	@Override
 	public final void registerSubscription(SubscribeMessage subscribeMessage) {
 		String sessionId = subscribeMessage.getWebSocketSessionId();
-		String destination = subscribeMessage.getTopicURI();
-		if (sessionId != null && destination != null) {
-			addSessionId(sessionId, destination);
-			this.destinationCache.updateAfterNewSession(destination, sessionId);
+		String topicURI = subscribeMessage.getTopicURI();
+		if (sessionId != null && topicURI != null) {
+			synchronized (lockFor(this.sessionLocks, sessionId)) {
+				String destination = this.topicTable.acquire(topicURI).getUri();
+				if (addSessionId(sessionId, destination)) {
+					int slot = this.sessionIdTable.intern(sessionId);
+					if (isPattern(destination)) {
+						synchronized (lockFor(this.destinationLocks, destination)) {
+							addSubscription(this.patternSubscriptions, destination, slot);
+							this.destinationCache.updateAfterNewSession(destination, slot);
+						}
+					}
+					else {
+						addSubscription(this.literalSubscriptions, destination, slot);
+					}
+				}
+				else {
+					this.topicTable.release(destination);
+				}
+			}
 		}
 	}
 
@@ -99,158 +153,390 @@ public class DefaultSubscriptionRegistry implements SubscriptionRegistry {
 	}
 
 	protected void removeSessionDestination(String sessionId, String destination) {
+		synchronized (lockFor(this.sessionLocks, sessionId)) {
+			Set<String> destinations = this.sessionDestinations.get(sessionId);
+			if (destinations != null && destinations.remove(destination)) {
+				if (destinations.isEmpty()) {
+					this.sessionDestinations.remove(sessionId);
+				}
 
-		Set<String> destinations = this.sessionDestinations.get(sessionId);
-		if (destinations != null) {
-			String removedDestination = null;
-			String removedSessionId = null;
-			synchronized (this.monitor) {
-				if (destinations.remove(destination)) {
-					removedDestination = destination;
-					if (destinations.isEmpty()) {
-						this.sessionDestinations.remove(sessionId);
-						removedSessionId = sessionId;
+				int slot = this.sessionIdTable.slotOf(sessionId);
+				if (isPattern(destination)) {
+					synchronized (lockFor(this.destinationLocks, destination)) {
+						boolean lastSubscription = removeSubscription(
+								this.patternSubscriptions, destination, slot);
+						this.destinationCache.updateAfterRemovedPattern(slot,
+								destination, destinations, lastSubscription);
 					}
 				}
-			}
-			if (removedDestination != null) {
-				this.destinationCache.updateAfterRemovedDestination(sessionId,
-						removedDestination);
-			}
-			if (removedSessionId != null) {
-				this.destinationCache.updateAfterRemovedSession(removedSessionId);
+				else {
+					removeSubscription(this.literalSubscriptions, destination, slot);
+				}
+
+				if (destinations.isEmpty()) {
+					this.sessionIdTable.release(sessionId);
+				}
+				this.topicTable.release(destination);
 			}
 		}
-
 	}
 
 	@Override
 	public void unregisterSession(String sessionId) {
-		Set<String> destinations = this.sessionDestinations.remove(sessionId);
-		if (destinations != null) {
-			this.destinationCache.updateAfterRemovedSession(sessionId);
+		synchronized (lockFor(this.sessionLocks, sessionId)) {
+			Set<String> destinations = this.sessionDestinations.remove(sessionId);
+			if (destinations != null) {
+				int slot = this.sessionIdTable.slotOf(sessionId);
+				boolean hadPatterns = false;
+				for (String destination : destinations) {
+					if (isPattern(destination)) {
+						synchronized (lockFor(this.destinationLocks, destination)) {
+							if (removeSubscription(this.patternSubscriptions,
+									destination, slot)) {
+								this.destinationCache
+										.updateAfterRemovedPattern(destination);
+							}
+						}
+						hadPatterns = true;
+					}
+					else {
+						removeSubscription(this.literalSubscriptions, destination, slot);
+					}
+					this.topicTable.release(destination);
+				}
+				if (hadPatterns) {
+					this.destinationCache.updateAfterRemovedSession(slot);
+				}
+				this.sessionIdTable.release(sessionId);
+			}
 		}
 	}
 
-	private Set<String> addSessionId(String sessionId, String destination) {
+	/**
+	 * Has to be called while holding the lock of the session.
+	 * @return true if the session was not yet subscribed to the destination
+	 */
+	private boolean addSessionId(String sessionId, String destination) {
 		Set<String> destinations = this.sessionDestinations.get(sessionId);
 		if (destinations == null) {
-			synchronized (this.monitor) {
-				destinations = this.sessionDestinations.get(sessionId);
-				if (destinations == null) {
-					destinations = new HashSet<>(4);
-					this.sessionDestinations.put(sessionId, destinations);
+			destinations = newConcurrentSet();
+			this.sessionDestinations.put(sessionId, destinations);
+		}
+		return destinations.add(destination);
+	}
+
+	private void addSubscription(ConcurrentMap<String, SubscriberSlots> subscriptions,
+			String destination, int slot) {
+		synchronized (lockFor(this.destinationLocks, destination)) {
+			SubscriberSlots slots = subscriptions.get(destination);
+			if (slots == null) {
+				slots = new SubscriberSlots();
+				subscriptions.put(destination, slots);
+			}
+			slots.add(slot);
+		}
+	}
+
+	/**
+	 * @return true if the destination has no subscribers anymore
+	 */
+	private boolean removeSubscription(
+			ConcurrentMap<String, SubscriberSlots> subscriptions, String destination,
+			int slot) {
+		synchronized (lockFor(this.destinationLocks, destination)) {
+			SubscriberSlots slots = subscriptions.get(destination);
+			if (slots != null && slot != -1) {
+				slots.remove(slot);
+				if (slots.isEmpty()) {
+					subscriptions.remove(destination);
+					return true;
 				}
 			}
+			return false;
 		}
-		destinations.add(destination);
-		return destinations;
 	}
 
-	private Set<String> findSubscriptionsInternal(String destination) {
-		Set<String> sessionIds = this.destinationCache.getSessionIds(destination);
-		if (sessionIds != null) {
-			return sessionIds;
+	private static Object[] newLocks() {
+		Object[] locks = new Object[LOCK_STRIPES];
+		for (int i = 0; i < locks.length; i++) {
+			locks[i] = new Object();
 		}
+		return locks;
+	}
 
-		sessionIds = new HashSet<>();
-		for (Map.Entry<String, Set<String>> subscribedSessions : this.sessionDestinations
-				.entrySet()) {
-			String sessionId = subscribedSessions.getKey();
-			for (String destinationPattern : subscribedSessions.getValue()) {
-				if (this.pathMatcher.match(destinationPattern, destination)) {
-					sessionIds.add(sessionId);
-				}
+	private static Object lockFor(Object[] locks, String key) {
+		int hash = key.hashCode();
+		return locks[(hash ^ hash >>> 16) & (LOCK_STRIPES - 1)];
+	}
+
+	private static Set<String> newConcurrentSet() {
+		return Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>(4));
+	}
+
+	/**
+	 * {@link AntPathMatcher#isPattern(String)} does not treat URI template variables
+	 * like <code>/topic/{id}</code> as a pattern, but they only match with the
+	 * pathMatcher.
+	 */
+	private boolean isPattern(String destination) {
+		return this.pathMatcher.isPattern(destination) || destination.indexOf('{') != -1;
+	}
+
+	private Set<String> findSubscriptionsInternal(String destination) {
+		// read the epoch before the slots, see SessionIdTable
+		long epoch = this.sessionIdTable.getEpoch();
+		SubscriberSlots literalSubscribers = this.literalSubscriptions.get(destination);
+		SlotSet literalSlots = literalSubscribers != null ? literalSubscribers.snapshot()
+				: null;
+		if (this.patternSubscriptions.isEmpty()) {
+			if (literalSlots != null) {
+				return new SessionIdSet(this.sessionIdTable, literalSlots, epoch);
 			}
+			return Collections.emptySet();
 		}
 
-		if (!sessionIds.isEmpty()) {
-			this.destinationCache.addSessionIds(destination, sessionIds);
+		BitSet patternSlots = findPatternSubscriptions(destination);
+		if (literalSlots == null) {
+			return new SessionIdSet(this.sessionIdTable, SlotSet.of(patternSlots), epoch);
+		}
+		if (patternSlots.isEmpty()) {
+			return new SessionIdSet(this.sessionIdTable, literalSlots, epoch);
 		}
 
-		return sessionIds;
+		BitSet slots = (BitSet) patternSlots.clone();
+		literalSlots.addTo(slots);
+		return new SessionIdSet(this.sessionIdTable, SlotSet.of(slots), epoch);
+	}
+
+	private BitSet findPatternSubscriptions(String destination) {
+		BitSet slots = this.destinationCache.getSlots(destination);
+		if (slots != null) {
+			return slots;
+		}
+
+		// the slots are computed without a lock. addSlots does not cache them if a
+		// subscription changed in the meantime
+		long generation = this.destinationCache.getGeneration();
+		slots = new BitSet();
+		Set<String> patterns = new HashSet<>();
+		for (Map.Entry<String, SubscriberSlots> subscription : this.patternSubscriptions
+				.entrySet()) {
+			if (this.pathMatcher.match(subscription.getKey(), destination)) {
+				subscription.getValue().snapshot().addTo(slots);
+				patterns.add(subscription.getKey());
+			}
+		}
+
+		this.destinationCache.addSlots(destination, slots, patterns, generation);
+		return slots;
 	}
 
 	/**
 	 * A cache for destinations previously resolved via
-	 * {@link DefaultSubscriptionRegistry#findSubscriptionsInternal(String, Message)}
+	 * {@link DefaultSubscriptionRegistry#findPatternSubscriptions(String)}. Contains only
+	 * the sessions that subscribed with a pattern.
+	 * <p>
+	 * Keeps a pattern -> cached destinations and a session slot -> cached destinations
+	 * index, so subscribe, unsubscribe and session cleanup only touch the affected
+	 * entries.
 	 */
 	private class DestinationCache {
 
-		/** Map from destination -> sessionId for fast look-ups */
-		private final Map<String, Set<String>> accessCache = new ConcurrentHashMap<>(
+		/** Map from destination -> session slots for fast look-ups */
+		private final Map<String, BitSet> accessCache = new ConcurrentHashMap<>(
 				DEFAULT_CACHE_LIMIT);
 
-		/** Map from destination -> sessionId with locking */
+		/** Map from destination -> cache entry with locking */
 		@SuppressWarnings("serial")
-		private final Map<String, Set<String>> updateCache = new LinkedHashMap<String, Set<String>>(
+		private final Map<String, CacheEntry> updateCache = new LinkedHashMap<String, CacheEntry>(
 				DEFAULT_CACHE_LIMIT, 0.75f, true) {
 			@Override
-			protected boolean removeEldestEntry(Map.Entry<String, Set<String>> eldest) {
-				return size() > DefaultSubscriptionRegistry.this.cacheLimit;
+			protected boolean removeEldestEntry(Map.Entry<String, CacheEntry> eldest) {
+				if (size() > DefaultSubscriptionRegistry.this.cacheLimit) {
+					removeFromIndexes(eldest.getKey(), eldest.getValue());
+					DestinationCache.this.accessCache.remove(eldest.getKey());
+					return true;
+				}
+				return false;
 			}
 		};
 
-		public Set<String> getSessionIds(String destination) {
+		/** Map from pattern -> cached destinations the pattern matches */
+		private final Map<String, Set<String>> patternDestinations = new HashMap<>();
+
+		/** Map from session slot -> cached destinations the session is part of */
+		private final Map<Integer, Set<String>> sessionDestinations = new HashMap<>();
+
+		/**
+		 * Incremented by every change of the pattern subscriptions. Written while
+		 * holding the updateCache lock.
+		 */
+		private volatile long generation = 0;
+
+		public BitSet getSlots(String destination) {
 			return this.accessCache.get(destination);
 		}
 
-		public void addSessionIds(String destination, Set<String> sessionIds) {
+		public long getGeneration() {
+			return this.generation;
+		}
+
+		/**
+		 * Caches the slots of the destination unless a pattern subscription changed after
+		 * the given generation was read. Such a change would be missing from the slots,
+		 * for example a session that unsubscribed and whose slot was reused.
+		 */
+		public void addSlots(String destination, BitSet slots, Set<String> patterns,
+				long slotsGeneration) {
 			synchronized (this.updateCache) {
-				this.updateCache.put(destination, new HashSet<>(sessionIds));
-				this.accessCache.put(destination, sessionIds);
+				if (slotsGeneration != this.generation
+						|| this.updateCache.containsKey(destination)) {
+					return;
+				}
+				CacheEntry entry = new CacheEntry((BitSet) slots.clone());
+				for (String pattern : patterns) {
+					// only index patterns that still have subscribers
+					Set<String> destinations = this.patternDestinations.get(pattern);
+					if (destinations != null) {
+						destinations.add(destination);
+						entry.patterns.add(pattern);
+					}
+				}
+				for (int slot = slots.nextSetBit(0); slot != -1; slot = slots
+						.nextSetBit(slot + 1)) {
+					addToIndex(this.sessionDestinations, slot, destination);
+				}
+				this.accessCache.put(destination, slots);
+				this.updateCache.put(destination, entry);
 			}
 		}
 
-		public void updateAfterNewSession(String destination, String sessionId) {
+		public void updateAfterNewSession(String pattern, int slot) {
 			synchronized (this.updateCache) {
-				for (Map.Entry<String, Set<String>> entry : this.updateCache.entrySet()) {
-					String cachedDestination = entry.getKey();
-					if (DefaultSubscriptionRegistry.this.pathMatcher.match(destination,
-							cachedDestination)) {
-						Set<String> sessionIds = entry.getValue();
-						sessionIds.add(sessionId);
+				this.generation++;
+				Set<String> destinations = this.patternDestinations.get(pattern);
+				if (destinations == null) {
+					// first subscription with this pattern, find the matching entries once
+					destinations = new HashSet<>();
+					for (Map.Entry<String, CacheEntry> entry : this.updateCache
+							.entrySet()) {
+						String cachedDestination = entry.getKey();
+						if (DefaultSubscriptionRegistry.this.pathMatcher.match(pattern,
+								cachedDestination)) {
+							entry.getValue().patterns.add(pattern);
+							destinations.add(cachedDestination);
+						}
+					}
+					this.patternDestinations.put(pattern, destinations);
+				}
+
+				for (String cachedDestination : destinations) {
+					CacheEntry entry = this.updateCache.get(cachedDestination);
+					if (!entry.slots.get(slot)) {
+						entry.slots.set(slot);
+						addToIndex(this.sessionDestinations, slot, cachedDestination);
 						this.accessCache.put(cachedDestination,
-								new HashSet<>(sessionIds));
+								(BitSet) entry.slots.clone());
 					}
 				}
 			}
 		}
 
-		public void updateAfterRemovedDestination(String sessionId, String destination) {
+		/**
+		 * Removes the session from all cached destinations the pattern matches, unless
+		 * one of the remaining destinations of the session matches as well.
+		 */
+		public void updateAfterRemovedPattern(int slot, String pattern,
+				Set<String> remainingDestinations, boolean lastSubscription) {
 			synchronized (this.updateCache) {
-				Set<String> sessionIds = this.updateCache.get(destination);
-				if (sessionIds != null) {
-					sessionIds.remove(sessionId);
-					if (sessionIds.isEmpty()) {
-						this.updateCache.remove(destination);
-						this.accessCache.remove(destination);
+				this.generation++;
+				Set<String> destinations = this.patternDestinations.get(pattern);
+				if (destinations != null && slot != -1) {
+					for (String cachedDestination : destinations) {
+						CacheEntry entry = this.updateCache.get(cachedDestination);
+						if (entry.slots.get(slot)
+								&& !containsAny(entry.patterns, remainingDestinations)) {
+							entry.slots.clear(slot);
+							removeFromIndex(this.sessionDestinations, slot,
+									cachedDestination);
+							this.accessCache.put(cachedDestination,
+									(BitSet) entry.slots.clone());
+						}
 					}
-					else {
-						this.accessCache.put(destination, new HashSet<>(sessionIds));
+				}
+				if (lastSubscription) {
+					updateAfterRemovedPattern(pattern);
+				}
+			}
+		}
+
+		/**
+		 * Called when the last subscription of the pattern was removed.
+		 */
+		public void updateAfterRemovedPattern(String pattern) {
+			synchronized (this.updateCache) {
+				this.generation++;
+				Set<String> destinations = this.patternDestinations.remove(pattern);
+				if (destinations != null) {
+					for (String cachedDestination : destinations) {
+						this.updateCache.get(cachedDestination).patterns.remove(pattern);
 					}
 				}
 			}
 		}
 
-		public void updateAfterRemovedSession(String sessionId) {
+		public void updateAfterRemovedSession(int slot) {
 			synchronized (this.updateCache) {
-				Set<String> destinationsToRemove = new HashSet<>();
-				for (Map.Entry<String, Set<String>> entry : this.updateCache.entrySet()) {
-					String destination = entry.getKey();
-					Set<String> sessiondIds = entry.getValue();
-					if (sessiondIds.remove(sessionId)) {
-						if (sessiondIds.isEmpty()) {
-							destinationsToRemove.add(destination);
-						}
-						else {
-							this.accessCache.put(destination, new HashSet<>(sessiondIds));
-						}
+				this.generation++;
+				Set<String> destinations = this.sessionDestinations.remove(slot);
+				if (destinations != null) {
+					for (String cachedDestination : destinations) {
+						CacheEntry entry = this.updateCache.get(cachedDestination);
+						entry.slots.clear(slot);
+						this.accessCache.put(cachedDestination,
+								(BitSet) entry.slots.clone());
 					}
 				}
-				for (String destination : destinationsToRemove) {
-					this.updateCache.remove(destination);
-					this.accessCache.remove(destination);
+			}
+		}
+
+		private boolean containsAny(Set<String> patterns,
+				Set<String> remainingDestinations) {
+			for (String destination : remainingDestinations) {
+				if (patterns.contains(destination)) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		private void removeFromIndexes(String destination, CacheEntry entry) {
+			for (String pattern : entry.patterns) {
+				this.patternDestinations.get(pattern).remove(destination);
+			}
+			for (int slot = entry.slots.nextSetBit(0); slot != -1; slot = entry.slots
+					.nextSetBit(slot + 1)) {
+				removeFromIndex(this.sessionDestinations, slot, destination);
+			}
+		}
+
+		private void addToIndex(Map<Integer, Set<String>> index, int slot,
+				String destination) {
+			Set<String> destinations = index.get(slot);
+			if (destinations == null) {
+				destinations = new HashSet<>(4);
+				index.put(slot, destinations);
+			}
+			destinations.add(destination);
+		}
+
+		private void removeFromIndex(Map<Integer, Set<String>> index, int slot,
+				String destination) {
+			Set<String> destinations = index.get(slot);
+			if (destinations != null) {
+				destinations.remove(destination);
+				if (destinations.isEmpty()) {
+					index.remove(slot);
 				}
 			}
 		}
@@ -261,4 +547,17 @@ public class DefaultSubscriptionRegistry implements SubscriptionRegistry {
 		}
 	}
 
+	private static class CacheEntry {
+
+		/** Slots of the sessions subscribed to the destination with a pattern */
+		final BitSet slots;
+
+		/** Subscribed patterns that match the destination */
+		final Set<String> patterns = new HashSet<>(4);
+
+		CacheEntry(BitSet slots) {
+			this.slots = slots;
+		}
+	}
+
 }
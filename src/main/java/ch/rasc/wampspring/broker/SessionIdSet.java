@@ -0,0 +1,141 @@
+/**
+ * Copyright 2014-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ch.rasc.wampspring.broker;
+
+import java.util.AbstractSet;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Read only {@link java.util.Set} of WebSocket session ids that is backed by a
+ * {@link SlotSet} of interned session slots. Returned by the
+ * {@link DefaultSubscriptionRegistry} and the {@link TrieSubscriptionRegistry}. The
+ * slots are a snapshot and never change after the set was created. Sessions that
+ * were released after the snapshot was taken are skipped, and so are sessions that
+ * reuse one of their slots.
+ * <p>
+ * {@link #filter(Collection, Collection)} applies eligible and exclude lists with slot
+ * operations instead of looking up every subscriber in the lists.
+ */
+public final class SessionIdSet extends AbstractSet<String> {
+
+	private final SessionIdTable sessionIdTable;
+
+	private final SlotSet slots;
+
+	private final long epoch;
+
+	SessionIdSet(SessionIdTable sessionIdTable, SlotSet slots, long epoch) {
+		this.sessionIdTable = sessionIdTable;
+		this.slots = slots;
+		this.epoch = epoch;
+	}
+
+	/**
+	 * Returns a new set with the sessions of this set that are contained in the eligible
+	 * collection and not contained in the exclude collection.
+	 *
+	 * @param eligible the sessions to keep, null keeps all sessions
+	 * @param exclude the sessions to remove, may be null
+	 */
+	public SessionIdSet filter(Collection<String> eligible, Collection<String> exclude) {
+		if (eligible == null && exclude == null) {
+			return this;
+		}
+
+		SlotSet result = this.slots.filter(
+				eligible != null ? this.sessionIdTable.toBitSet(eligible) : null,
+				exclude != null ? this.sessionIdTable.toBitSet(exclude) : null);
+		return new SessionIdSet(this.sessionIdTable, result, this.epoch);
+	}
+
+	@Override
+	public boolean contains(Object o) {
+		if (!(o instanceof String)) {
+			return false;
+		}
+		int slot = this.sessionIdTable.slotOf((String) o);
+		return slot != -1 && this.slots.contains(slot)
+				&& o.equals(this.sessionIdTable.sessionIdOf(slot, this.epoch));
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return !iterator().hasNext();
+	}
+
+	/**
+	 * Counts the sessions the iterator returns. Released slots are not counted.
+	 */
+	@Override
+	public int size() {
+		int size = 0;
+		for (int slot = this.slots.nextSlot(0); slot != -1; slot = this.slots
+				.nextSlot(slot + 1)) {
+			if (this.sessionIdTable.sessionIdOf(slot, this.epoch) != null) {
+				size++;
+			}
+		}
+		return size;
+	}
+
+	@Override
+	public Iterator<String> iterator() {
+		return new Iterator<String>() {
+
+			private int slot = this.advance(0);
+
+			private String next;
+
+			private int advance(int from) {
+				int nextSlot = SessionIdSet.this.slots.nextSlot(from);
+				while (nextSlot != -1) {
+					// skip slots that have been released or reused after the snapshot was
+					// taken
+					this.next = SessionIdSet.this.sessionIdTable.sessionIdOf(nextSlot,
+							SessionIdSet.this.epoch);
+					if (this.next != null) {
+						return nextSlot;
+					}
+					nextSlot = SessionIdSet.this.slots.nextSlot(nextSlot + 1);
+				}
+				return -1;
+			}
+
+			@Override
+			public boolean hasNext() {
+				return this.slot != -1;
+			}
+
+			@Override
+			public String next() {
+				if (this.slot == -1) {
+					throw new NoSuchElementException();
+				}
+				String sessionId = this.next;
+				this.slot = advance(this.slot + 1);
+				return sessionId;
+			}
+
+			@Override
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+
+}
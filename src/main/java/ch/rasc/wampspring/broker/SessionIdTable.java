@@ -0,0 +1,163 @@
+/**
+ * Copyright 2014-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ch.rasc.wampspring.broker;
+
+import java.util.ArrayDeque;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Interns WebSocket session ids to dense int slots, so sets of sessions can be stored as
+ * {@link SlotSet}s. Slots of released sessions are reused in the order they were
+ * released, which keeps the slot numbers and therefore the slot sets small.
+ * <p>
+ * Every assignment of a slot increments the epoch of the table. A snapshot of a slot set
+ * remembers the epoch that was current before the slot set was read, and
+ * {@link #sessionIdOf(int, long)} does not return sessions that got their slot after
+ * that. A snapshot that still contains the slot of a released session therefore never
+ * resolves it to the session that reuses the slot.
+ * <p>
+ * Lookups don't lock. {@link #intern(String)} and {@link #release(String)} are
+ * serialized.
+ */
+class SessionIdTable {
+
+	private final ConcurrentMap<String, Integer> slots = new ConcurrentHashMap<>();
+
+	private final Queue<Integer> freeSlots = new ArrayDeque<>();
+
+	private volatile AtomicReferenceArray<Occupant> occupants = new AtomicReferenceArray<>(
+			64);
+
+	private volatile long epoch = 0;
+
+	private int nextSlot = 0;
+
+	/**
+	 * Returns the slot of the session and assigns a new one if the session does not have
+	 * a slot yet.
+	 */
+	int intern(String sessionId) {
+		Integer slot = this.slots.get(sessionId);
+		if (slot != null) {
+			return slot;
+		}
+
+		synchronized (this) {
+			slot = this.slots.get(sessionId);
+			if (slot == null) {
+				slot = this.freeSlots.poll();
+				if (slot == null) {
+					slot = this.nextSlot++;
+				}
+
+				AtomicReferenceArray<Occupant> ids = this.occupants;
+				if (slot >= ids.length()) {
+					AtomicReferenceArray<Occupant> newIds = new AtomicReferenceArray<>(
+							ids.length() * 2);
+					for (int i = 0; i < ids.length(); i++) {
+						newIds.set(i, ids.get(i));
+					}
+					ids = newIds;
+					this.occupants = ids;
+				}
+				long newEpoch = this.epoch + 1;
+				ids.set(slot, new Occupant(sessionId, newEpoch));
+				this.epoch = newEpoch;
+				this.slots.put(sessionId, slot);
+			}
+			return slot;
+		}
+	}
+
+	/**
+	 * Frees the slot of the session. Has to be called after the session was removed from
+	 * all slot sets.
+	 */
+	synchronized void release(String sessionId) {
+		Integer slot = this.slots.remove(sessionId);
+		if (slot != null) {
+			this.occupants.set(slot, null);
+			this.freeSlots.add(slot);
+		}
+	}
+
+	/**
+	 * @return the slot of the session or -1 if the session does not have a slot
+	 */
+	int slotOf(String sessionId) {
+		Integer slot = this.slots.get(sessionId);
+		return slot != null ? slot : -1;
+	}
+
+	/**
+	 * Returns the current epoch. Has to be read before the slots of a snapshot.
+	 */
+	long getEpoch() {
+		return this.epoch;
+	}
+
+	/**
+	 * @return the session that occupies the slot or null if the slot is free or was
+	 * assigned after the given epoch
+	 */
+	String sessionIdOf(int slot, long snapshotEpoch) {
+		AtomicReferenceArray<Occupant> ids = this.occupants;
+		if (slot < ids.length()) {
+			Occupant occupant = ids.get(slot);
+			if (occupant != null && occupant.epoch <= snapshotEpoch) {
+				return occupant.sessionId;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Converts a collection of session ids into a bitset. Sessions without a slot are
+	 * ignored.
+	 */
+	BitSet toBitSet(Collection<String> sessionIds) {
+		BitSet bits = new BitSet();
+		for (String sessionId : sessionIds) {
+			int slot = slotOf(sessionId);
+			if (slot != -1) {
+				bits.set(slot);
+			}
+		}
+		return bits;
+	}
+
+	int size() {
+		return this.slots.size();
+	}
+
+	private static class Occupant {
+
+		final String sessionId;
+
+		final long epoch;
+
+		Occupant(String sessionId, long epoch) {
+			this.sessionId = sessionId;
+			this.epoch = epoch;
+		}
+	}
+
+}
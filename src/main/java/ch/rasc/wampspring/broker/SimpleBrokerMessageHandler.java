@@ -15,7 +15,13 @@
  */
 package ch.rasc.wampspring.broker;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -24,7 +30,9 @@ import org.springframework.messaging.Message;
 import org.springframework.messaging.MessageChannel;
 import org.springframework.messaging.MessageHandler;
 import org.springframework.messaging.SubscribableChannel;
+import org.springframework.util.AntPathMatcher;
 import org.springframework.util.Assert;
+import org.springframework.util.PathMatcher;
 
 import ch.rasc.wampspring.config.WampMessageSelector;
 import ch.rasc.wampspring.config.WampSession;
@@ -32,6 +40,7 @@ import ch.rasc.wampspring.message.EventMessage;
 import ch.rasc.wampspring.message.PubSubMessage;
 import ch.rasc.wampspring.message.PublishMessage;
 import ch.rasc.wampspring.message.SubscribeMessage;
+import ch.rasc.wampspring.message.TopicTable;
 import ch.rasc.wampspring.message.UnsubscribeMessage;
 import ch.rasc.wampspring.message.WampMessage;
 import ch.rasc.wampspring.message.WampMessageType;
@@ -62,6 +71,15 @@ public class SimpleBrokerMessageHandler implements MessageHandler, SmartLifecycl
 
 	private boolean authenticationRequiredGlobal = false;
 
+	private PathMatcher pathMatcher = new AntPathMatcher();
+
+	private TopicTable topicTable;
+
+	private volatile Collection<String> conflatedTopicPatterns = Collections.emptyList();
+
+	// webSocketSessionId -> topicURI -> newest not yet delivered event
+	private final ConcurrentMap<String, ConcurrentMap<String, AtomicReference<EventMessage>>> pendingConflatedEvents = new ConcurrentHashMap<>();
+
 	public SimpleBrokerMessageHandler(SubscribableChannel inboundChannel,
 			MessageChannel outboundChannel, SubscribableChannel brokerChannel,
 			SubscriptionRegistry subscriptionRegistry,
@@ -84,6 +102,37 @@ public class SimpleBrokerMessageHandler implements MessageHandler, SmartLifecycl
 		this.authenticationRequiredGlobal = authenticationRequiredGlobal;
 	}
 
+	/**
+	 * The {@link PathMatcher} that matches topicURIs against the conflated topic
+	 * patterns. Default is {@link AntPathMatcher}.
+	 */
+	public void setPathMatcher(PathMatcher pathMatcher) {
+		Assert.notNull(pathMatcher, "'pathMatcher' must not be null");
+		this.pathMatcher = pathMatcher;
+	}
+
+	/**
+	 * The table of the subscribed topics. Events that the application sends to the
+	 * broker are canonicalized with this table before they are delivered to the
+	 * subscribers. Should be the same table the {@link SubscriptionRegistry} registers
+	 * its topics in.
+	 */
+	public void setTopicTable(TopicTable topicTable) {
+		this.topicTable = topicTable;
+	}
+
+	/**
+	 * Events of topics that match one of these patterns are conflated. If a WebSocket
+	 * session has not yet received the previous event of a topic, the pending event is
+	 * replaced by the newer one. A slow client receives the current value instead of a
+	 * backlog of outdated values. By default no topic is conflated.
+	 */
+	public void setConflatedTopicPatterns(Collection<String> conflatedTopicPatterns) {
+		this.conflatedTopicPatterns = conflatedTopicPatterns != null
+				? new ArrayList<>(conflatedTopicPatterns)
+				: Collections.<String>emptyList();
+	}
+
 	public void setAutoStartup(boolean autoStartup) {
 		this.autoStartup = autoStartup;
 	}
@@ -157,6 +206,10 @@ public class SimpleBrokerMessageHandler implements MessageHandler, SmartLifecycl
 		WampMessageType messageType = wampMessage.getType();
 
 		if (messageType == WampMessageType.EVENT) {
+			// events are not sent by clients and were not canonicalized when decoded
+			if (this.topicTable != null) {
+				this.topicTable.canonicalize((EventMessage) wampMessage);
+			}
 			sendMessageToSubscribers((EventMessage) wampMessage);
 		}
 		else if (messageType == WampMessageType.PUBLISH) {
@@ -173,10 +226,14 @@ public class SimpleBrokerMessageHandler implements MessageHandler, SmartLifecycl
 			if (unsubscribeMessage.isCleanup()) {
 				this.subscriptionRegistry
 						.unregisterSession(unsubscribeMessage.getWebSocketSessionId());
+				this.pendingConflatedEvents
+						.remove(unsubscribeMessage.getWebSocketSessionId());
 			}
 			else {
 				checkAuthentication(wampMessage);
 				this.subscriptionRegistry.unregisterSubscription(unsubscribeMessage);
+				removePendingConflatedEvents(unsubscribeMessage.getWebSocketSessionId(),
+						unsubscribeMessage.getTopicURI());
 			}
 		}
 
@@ -202,20 +259,32 @@ public class SimpleBrokerMessageHandler implements MessageHandler, SmartLifecycl
 			Set<String> eligibleSessionIds = eventMessage
 					.getEligibleWebSocketSessionIds();
 			Set<String> excludeSessionIds = eventMessage.getExcludeWebSocketSessionIds();
+			boolean conflate = isConflated(eventMessage.getTopicURI());
+
+			if (sessionIds instanceof SessionIdSet) {
+				// the exclude list takes precedence over the eligible list
+				SessionIdSet receivers = ((SessionIdSet) sessionIds).filter(
+						excludeSessionIds == null ? eligibleSessionIds : null,
+						excludeSessionIds);
+				for (String sessionId : receivers) {
+					deliver(eventMessage, sessionId, conflate);
+				}
+				return;
+			}
 
 			for (String sessionId : sessionIds) {
 				if (excludeSessionIds != null) {
 					if (!excludeSessionIds.contains(sessionId)) {
-						sendEventMessage(eventMessage, sessionId);
+						deliver(eventMessage, sessionId, conflate);
 					}
 				}
 				else if (eligibleSessionIds != null) {
 					if (eligibleSessionIds.contains(sessionId)) {
-						sendEventMessage(eventMessage, sessionId);
+						deliver(eventMessage, sessionId, conflate);
 					}
 				}
 				else {
-					sendEventMessage(eventMessage, sessionId);
+					deliver(eventMessage, sessionId, conflate);
 				}
 			}
 		}
@@ -236,9 +305,22 @@ public class SimpleBrokerMessageHandler implements MessageHandler, SmartLifecycl
 						"Broadcasting to " + subscribedSessionIds.size() + " sessions.");
 			}
 
+			// all receivers share the encoded frame of this event
+			EventMessage eventMessage = new EventMessage(publishMessage,
+					publishMessage.getWebSocketSessionId());
+			boolean conflate = isConflated(publishMessage.getTopicURI());
+
+			if (subscribedSessionIds instanceof SessionIdSet) {
+				for (String sessionId : filter((SessionIdSet) subscribedSessionIds,
+						publishMessage)) {
+					deliver(eventMessage, sessionId, conflate);
+				}
+				return;
+			}
+
 			for (String subscriptionSessionId : subscribedSessionIds) {
 				if (isSessionEligible(publishMessage, subscriptionSessionId)) {
-					sendEventMessage(publishMessage, subscriptionSessionId);
+					deliver(eventMessage, subscriptionSessionId, conflate);
 				}
 			}
 		}
@@ -249,26 +331,139 @@ public class SimpleBrokerMessageHandler implements MessageHandler, SmartLifecycl
 		}
 	}
 
-	protected void sendEventMessage(EventMessage originEventMessage,
-			String receiverSessionId) {
+	private boolean isConflated(String topicURI) {
+		for (String pattern : this.conflatedTopicPatterns) {
+			if (this.pathMatcher.match(pattern, topicURI)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private void deliver(EventMessage originEventMessage, String receiverSessionId,
+			boolean conflate) {
+		if (!conflate) {
+			sendEventMessage(originEventMessage, receiverSessionId);
+			return;
+		}
+
+		ConcurrentMap<String, AtomicReference<EventMessage>> pendingEvents = this.pendingConflatedEvents
+				.get(receiverSessionId);
+		if (pendingEvents == null) {
+			pendingEvents = new ConcurrentHashMap<>();
+			ConcurrentMap<String, AtomicReference<EventMessage>> existing = this.pendingConflatedEvents
+					.putIfAbsent(receiverSessionId, pendingEvents);
+			if (existing != null) {
+				pendingEvents = existing;
+			}
+		}
+
+		String topicURI = originEventMessage.getTopicURI();
+		AtomicReference<EventMessage> pendingEvent = pendingEvents.get(topicURI);
+		if (pendingEvent == null) {
+			pendingEvent = new AtomicReference<>();
+			AtomicReference<EventMessage> existing = pendingEvents.putIfAbsent(topicURI,
+					pendingEvent);
+			if (existing != null) {
+				pendingEvent = existing;
+			}
+		}
+
 		EventMessage eventMessage = new EventMessage(originEventMessage,
 				receiverSessionId);
-		sendEventMessage(eventMessage);
+		if (pendingEvent.getAndSet(eventMessage) == null) {
+			// no placeholder on the way to the client, send one that picks up the newest
+			// event when it is written
+			sendEventMessage(new ConflatedEventMessage(eventMessage, pendingEvent),
+					receiverSessionId);
+		}
+	}
+
+	/**
+	 * Removes the pending conflated events of the topics the unsubscribed topicURI or
+	 * pattern matches, so the map does not keep growing while the session is open.
+	 */
+	/**
+	 * Removes the pending events of the topics the unsubscribed topicURI matches, unless
+	 * the session is still subscribed to the topic with another subscription.
+	 */
+	private void removePendingConflatedEvents(String webSocketSessionId,
+			String topicURI) {
+		if (webSocketSessionId == null || topicURI == null) {
+			return;
+		}
+		ConcurrentMap<String, AtomicReference<EventMessage>> pendingEvents = this.pendingConflatedEvents
+				.get(webSocketSessionId);
+		if (pendingEvents != null) {
+			for (String pendingTopicURI : pendingEvents.keySet()) {
+				if ((pendingTopicURI.equals(topicURI)
+						|| this.pathMatcher.match(topicURI, pendingTopicURI))
+						&& !this.subscriptionRegistry
+								.findSubscriptions(new EventMessage(pendingTopicURI, null))
+								.contains(webSocketSessionId)) {
+					pendingEvents.remove(pendingTopicURI);
+				}
+			}
+		}
 	}
 
+	/**
+	 * Sends an EVENT message for the publishMessage to one receiver. Every call encodes
+	 * the event again.
+	 *
+	 * @deprecated the broker no longer calls this method. It creates one
+	 * {@link EventMessage} per PUBLISH message, whose encoded frame is shared by all
+	 * receivers, and sends it with {@link #sendEventMessage(EventMessage, String)}.
+	 * Override that method instead.
+	 */
+	@Deprecated
 	protected void sendEventMessage(PublishMessage publishMessage,
 			String receiverSessionId) {
-		EventMessage eventMessage = new EventMessage(publishMessage, receiverSessionId);
+		sendEventMessage(
+				new EventMessage(publishMessage, publishMessage.getWebSocketSessionId()),
+				receiverSessionId);
+	}
+
+	/**
+	 * Sends the event to one receiver. A {@link ConflatedEventMessage} is already
+	 * addressed to the receiver and sent as it is, all other events are copied for the
+	 * receiver.
+	 */
+	protected void sendEventMessage(EventMessage originEventMessage,
+			String receiverSessionId) {
+		EventMessage eventMessage = originEventMessage instanceof ConflatedEventMessage
+				? originEventMessage
+				: new EventMessage(originEventMessage, receiverSessionId);
 		sendEventMessage(eventMessage);
 	}
 
 	protected void sendEventMessage(EventMessage eventMessage) {
+		boolean sent = false;
 		try {
-			this.clientOutboundChannel.send(eventMessage);
+			sent = this.clientOutboundChannel.send(eventMessage);
 		}
 		catch (Throwable ex) {
 			this.logger.error("Failed to send " + eventMessage, ex);
 		}
+		if (!sent && eventMessage instanceof ConflatedEventMessage) {
+			// free the slot, otherwise no further event of the topic would be sent
+			((ConflatedEventMessage) eventMessage).discard();
+		}
+	}
+
+	/**
+	 * Same as {@link #isSessionEligible(PublishMessage, String)} but applies the filters
+	 * with bitset operations.
+	 */
+	private static SessionIdSet filter(SessionIdSet sessionIds,
+			PublishMessage publishMessage) {
+		SessionIdSet receivers = sessionIds.filter(publishMessage.getEligible(),
+				publishMessage.getExclude());
+		if (publishMessage.getExcludeMe() != null && publishMessage.getExcludeMe()) {
+			receivers = receivers.filter(null,
+					Collections.singleton(publishMessage.getWebSocketSessionId()));
+		}
+		return receivers;
 	}
 
 	private static boolean isSessionEligible(PublishMessage publishMessage,
@@ -297,6 +492,21 @@ public class SimpleBrokerMessageHandler implements MessageHandler, SmartLifecycl
 		return true;
 	}
 
+	/**
+	 * Returns a description of the current state of the broker for
+	 * {@link ch.rasc.wampspring.config.WampMessageBrokerStats}
+	 */
+	public String getStatsInfo() {
+		StringBuilder sb = new StringBuilder();
+		sb.append("running = ").append(this.running);
+		if (this.topicTable != null) {
+			sb.append(", subscribed topics = ").append(this.topicTable.size());
+		}
+		sb.append(", sessions with conflated events = ")
+				.append(this.pendingConflatedEvents.size());
+		return sb.toString();
+	}
+
 	@Override
 	public String toString() {
 		return "SimpleBrokerMessageHandler [" + this.subscriptionRegistry + "]";
@@ -0,0 +1,133 @@
+/**
+ * Copyright 2014-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ch.rasc.wampspring.broker;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Immutable set of session slots. A set with few slots keeps them in a sorted int array,
+ * a set with many slots in a {@link BitSet}. A topic with a single subscriber in a high
+ * slot therefore only needs a few bytes instead of a bitset with a bit for every lower
+ * slot.
+ */
+final class SlotSet {
+
+	static final SlotSet EMPTY = new SlotSet(new int[0], 0, null);
+
+	/** Sorted slots, null if the slots are stored in {@link #dense} */
+	private final int[] sparse;
+
+	private final int sparseSize;
+
+	private final BitSet dense;
+
+	private SlotSet(int[] sparse, int sparseSize, BitSet dense) {
+		this.sparse = sparse;
+		this.sparseSize = sparseSize;
+		this.dense = dense;
+	}
+
+	/**
+	 * Creates a set from the first size elements of the sorted array. The array must not
+	 * be changed afterwards.
+	 */
+	static SlotSet ofSorted(int[] slots, int size) {
+		return size == 0 ? EMPTY : new SlotSet(slots, size, null);
+	}
+
+	/**
+	 * Creates a set that is backed by the bitset. The bitset must not be changed
+	 * afterwards.
+	 */
+	static SlotSet of(BitSet slots) {
+		return new SlotSet(null, 0, slots);
+	}
+
+	boolean isSparse() {
+		return this.sparse != null;
+	}
+
+	/**
+	 * @return the lowest slot that is greater than or equal to from or -1
+	 */
+	int nextSlot(int from) {
+		if (this.sparse == null) {
+			return this.dense.nextSetBit(from);
+		}
+		int index = Arrays.binarySearch(this.sparse, 0, this.sparseSize, from);
+		if (index < 0) {
+			index = -index - 1;
+		}
+		return index < this.sparseSize ? this.sparse[index] : -1;
+	}
+
+	boolean contains(int slot) {
+		if (this.sparse == null) {
+			return this.dense.get(slot);
+		}
+		return Arrays.binarySearch(this.sparse, 0, this.sparseSize, slot) >= 0;
+	}
+
+	boolean isEmpty() {
+		return this.sparse != null ? this.sparseSize == 0 : this.dense.isEmpty();
+	}
+
+	/**
+	 * Sets the slots of this set in the given bitset
+	 */
+	void addTo(BitSet slots) {
+		if (this.sparse == null) {
+			slots.or(this.dense);
+		}
+		else {
+			for (int i = 0; i < this.sparseSize; i++) {
+				slots.set(this.sparse[i]);
+			}
+		}
+	}
+
+	/**
+	 * Returns the slots of this set that are set in eligible and not set in exclude
+	 *
+	 * @param eligible the slots to keep, null keeps all slots
+	 * @param exclude the slots to remove, may be null
+	 */
+	SlotSet filter(BitSet eligible, BitSet exclude) {
+		if (this.sparse == null) {
+			BitSet result = (BitSet) this.dense.clone();
+			if (eligible != null) {
+				result.and(eligible);
+			}
+			if (exclude != null) {
+				result.andNot(exclude);
+			}
+			return of(result);
+		}
+
+		int[] result = new int[this.sparseSize];
+		int size = 0;
+		for (int i = 0; i < this.sparseSize; i++) {
+			int slot = this.sparse[i];
+			if ((eligible == null || eligible.get(slot))
+					&& (exclude == null || !exclude.get(slot))) {
+				result[size++] = slot;
+			}
+		}
+		return ofSorted(result, size);
+	}
+
+}
@@ -0,0 +1,168 @@
+/**
+ * Copyright 2014-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ch.rasc.wampspring.broker;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * The slots of the sessions that subscribed to one destination. Subscribe and
+ * unsubscribe change the slots in place, a lookup gets an immutable {@link SlotSet}
+ * snapshot. The snapshot is created on the first lookup after a change, so a burst of
+ * subscriptions to one topic does not copy the slots for every new subscriber.
+ * <p>
+ * The slots are kept in a sorted int array as long as the array is smaller than a
+ * bitset for the highest slot, otherwise in a {@link BitSet}.
+ */
+final class SubscriberSlots {
+
+	/** A bitset needs one bit per slot, the sorted array 32 bits per subscriber */
+	private static final int BITS_PER_SPARSE_SLOT = 32;
+
+	/** Sets up to this size always use the sorted array */
+	private static final int MIN_DENSE_SIZE = 16;
+
+	private int[] sparse = new int[2];
+
+	private BitSet dense;
+
+	private int size;
+
+	private volatile SlotSet snapshot = SlotSet.EMPTY;
+
+	/**
+	 * @return true if the slot was not yet part of the set
+	 */
+	synchronized boolean add(int slot) {
+		if (this.dense != null) {
+			if (this.dense.get(slot)) {
+				return false;
+			}
+			this.dense.set(slot);
+			this.size++;
+			if (isSparseSmaller()) {
+				toSparse();
+			}
+		}
+		else {
+			int index = Arrays.binarySearch(this.sparse, 0, this.size, slot);
+			if (index >= 0) {
+				return false;
+			}
+			index = -index - 1;
+			if (this.size + 1 > MIN_DENSE_SIZE
+					&& (this.size + 1) * BITS_PER_SPARSE_SLOT > highestSlot(slot)) {
+				toDense();
+				this.dense.set(slot);
+			}
+			else {
+				if (this.size == this.sparse.length) {
+					this.sparse = Arrays.copyOf(this.sparse, this.size * 2);
+				}
+				System.arraycopy(this.sparse, index, this.sparse, index + 1,
+						this.size - index);
+				this.sparse[index] = slot;
+			}
+			this.size++;
+		}
+		this.snapshot = null;
+		return true;
+	}
+
+	/**
+	 * @return true if the slot was part of the set
+	 */
+	synchronized boolean remove(int slot) {
+		if (this.dense != null) {
+			if (!this.dense.get(slot)) {
+				return false;
+			}
+			this.dense.clear(slot);
+			this.size--;
+			if (isSparseSmaller()) {
+				toSparse();
+			}
+		}
+		else {
+			int index = Arrays.binarySearch(this.sparse, 0, this.size, slot);
+			if (index < 0) {
+				return false;
+			}
+			System.arraycopy(this.sparse, index + 1, this.sparse, index,
+					this.size - index - 1);
+			this.size--;
+		}
+		this.snapshot = null;
+		return true;
+	}
+
+	synchronized boolean isEmpty() {
+		return this.size == 0;
+	}
+
+	/**
+	 * Returns an immutable snapshot of the slots. Does not lock if the slots did not
+	 * change since the last call.
+	 */
+	SlotSet snapshot() {
+		SlotSet current = this.snapshot;
+		if (current == null) {
+			synchronized (this) {
+				current = this.snapshot;
+				if (current == null) {
+					current = this.dense != null
+							? SlotSet.of((BitSet) this.dense.clone())
+							: SlotSet.ofSorted(Arrays.copyOf(this.sparse, this.size),
+									this.size);
+					this.snapshot = current;
+				}
+			}
+		}
+		return current;
+	}
+
+	/**
+	 * Whether the array would be less than half the size of the bitset. The margin
+	 * prevents switching back and forth on every change.
+	 */
+	private boolean isSparseSmaller() {
+		return this.size <= MIN_DENSE_SIZE
+				|| this.size * BITS_PER_SPARSE_SLOT * 2 < this.dense.length();
+	}
+
+	private int highestSlot(int newSlot) {
+		return this.size > 0 ? Math.max(this.sparse[this.size - 1], newSlot) : newSlot;
+	}
+
+	private void toDense() {
+		this.dense = new BitSet();
+		for (int i = 0; i < this.size; i++) {
+			this.dense.set(this.sparse[i]);
+		}
+		this.sparse = null;
+	}
+
+	private void toSparse() {
+		this.sparse = new int[Math.max(2, this.size)];
+		int i = 0;
+		for (int slot = this.dense.nextSetBit(0); slot != -1; slot = this.dense
+				.nextSetBit(slot + 1)) {
+			this.sparse[i++] = slot;
+		}
+		this.dense = null;
+	}
+
+}
@@ -0,0 +1,437 @@
+/**
+ * Copyright 2014-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ch.rasc.wampspring.broker;
+
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.util.AntPathMatcher;
+import org.springframework.util.Assert;
+import org.springframework.util.PathMatcher;
+import org.springframework.util.StringUtils;
+
+import ch.rasc.wampspring.message.PubSubMessage;
+import ch.rasc.wampspring.message.SubscribeMessage;
+import ch.rasc.wampspring.message.TopicTable;
+import ch.rasc.wampspring.message.UnsubscribeMessage;
+
+/**
+ * A {@link SubscriptionRegistry} that indexes the subscribed topic patterns in a segment
+ * trie. Every node represents one segment of a topicURI and has literal children, one
+ * child for single segment wildcards (<code>*</code>, <code>fo?</code>,
+ * <code>{ticker}</code>, ...) and one child for <code>**</code>.
+ * <p>
+ * Looking up the subscribers of a topic walks the trie along the segments of the topic
+ * and only checks the patterns that end in the reached nodes with the
+ * {@link PathMatcher}. The cost of a lookup therefore depends on the depth of the topic
+ * and the number of matching patterns and not on the total number of sessions and
+ * subscriptions.
+ * <p>
+ * Can be used instead of the {@link DefaultSubscriptionRegistry} by overriding
+ * {@link ch.rasc.wampspring.config.DefaultWampConfiguration#subscriptionRegistry()}.
+ */
+public class TrieSubscriptionRegistry implements SubscriptionRegistry {
+
+	protected final Log logger = LogFactory.getLog(getClass());
+
+	private final PathMatcher pathMatcher;
+
+	private final String pathSeparator;
+
+	private final TopicTable topicTable;
+
+	private final Node root = new Node(null, null);
+
+	// webSocketSessionId -> destinations
+	private final ConcurrentMap<String, Set<String>> sessionDestinations = new ConcurrentHashMap<>();
+
+	private final SessionIdTable sessionIdTable = new SessionIdTable();
+
+	/** Number of locks that serialize the modifications of a session, power of two */
+	private static final int LOCK_STRIPES = 64;
+
+	private final Object[] sessionLocks = new Object[LOCK_STRIPES];
+
+	public TrieSubscriptionRegistry(PathMatcher pathMatcher) {
+		this(pathMatcher, AntPathMatcher.DEFAULT_PATH_SEPARATOR);
+	}
+
+	public TrieSubscriptionRegistry(PathMatcher pathMatcher, TopicTable topicTable) {
+		this(pathMatcher, AntPathMatcher.DEFAULT_PATH_SEPARATOR, topicTable);
+	}
+
+	public TrieSubscriptionRegistry(PathMatcher pathMatcher, String pathSeparator) {
+		this(pathMatcher, pathSeparator, new TopicTable());
+	}
+
+	/**
+	 * @param pathMatcher the matcher that does the final check of a pattern
+	 * @param pathSeparator the separator that splits a topicURI into segments. Has to be
+	 * the same separator the pathMatcher is configured with.
+	 * @param topicTable the table the subscribed topics are registered in
+	 */
+	public TrieSubscriptionRegistry(PathMatcher pathMatcher, String pathSeparator,
+			TopicTable topicTable) {
+		Assert.notNull(pathMatcher, "'pathMatcher' must not be null");
+		Assert.hasLength(pathSeparator, "'pathSeparator' must not be empty");
+		Assert.notNull(topicTable, "'topicTable' must not be null");
+		this.pathMatcher = pathMatcher;
+		this.pathSeparator = pathSeparator;
+		this.topicTable = topicTable;
+		for (int i = 0; i < this.sessionLocks.length; i++) {
+			this.sessionLocks[i] = new Object();
+		}
+	}
+
+	@Override
+	public final void registerSubscription(SubscribeMessage subscribeMessage) {
+		String sessionId = subscribeMessage.getWebSocketSessionId();
+		String topicURI = subscribeMessage.getTopicURI();
+		if (sessionId != null && topicURI != null) {
+			synchronized (lockFor(sessionId)) {
+				String destination = this.topicTable.acquire(topicURI).getUri();
+				Set<String> destinations = this.sessionDestinations.get(sessionId);
+				if (destinations == null) {
+					destinations = Collections
+							.newSetFromMap(new ConcurrentHashMap<String, Boolean>(4));
+					this.sessionDestinations.put(sessionId, destinations);
+				}
+				if (destinations.add(destination)) {
+					addToTrie(destination, this.sessionIdTable.intern(sessionId));
+				}
+				else {
+					this.topicTable.release(destination);
+				}
+			}
+		}
+	}
+
+	@Override
+	public final void unregisterSubscription(UnsubscribeMessage unsubscribeMessage) {
+		String sessionId = unsubscribeMessage.getWebSocketSessionId();
+		String destination = unsubscribeMessage.getTopicURI();
+		if (sessionId != null && destination != null) {
+			synchronized (lockFor(sessionId)) {
+				Set<String> destinations = this.sessionDestinations.get(sessionId);
+				if (destinations != null && destinations.remove(destination)) {
+					removeFromTrie(destination, this.sessionIdTable.slotOf(sessionId));
+					if (destinations.isEmpty()) {
+						this.sessionDestinations.remove(sessionId);
+						this.sessionIdTable.release(sessionId);
+					}
+					this.topicTable.release(destination);
+				}
+			}
+		}
+	}
+
+	@Override
+	public void unregisterSession(String sessionId) {
+		synchronized (lockFor(sessionId)) {
+			Set<String> destinations = this.sessionDestinations.remove(sessionId);
+			if (destinations != null) {
+				int slot = this.sessionIdTable.slotOf(sessionId);
+				for (String destination : destinations) {
+					removeFromTrie(destination, slot);
+					this.topicTable.release(destination);
+				}
+				this.sessionIdTable.release(sessionId);
+			}
+		}
+	}
+
+	@Override
+	public final Set<String> findSubscriptions(PubSubMessage pubSubMessage) {
+		String destination = pubSubMessage.getDestination();
+		if (destination == null) {
+			return Collections.emptySet();
+		}
+
+		// read the epoch before the slots, see SessionIdTable
+		long epoch = this.sessionIdTable.getEpoch();
+		Matches matches = new Matches();
+		collectMatches(this.root, tokenize(destination), 0, destination, matches);
+
+		SlotSet slots = matches.getSlots();
+		if (slots.isEmpty()) {
+			return Collections.emptySet();
+		}
+		return new SessionIdSet(this.sessionIdTable, slots, epoch);
+	}
+
+	@Override
+	public boolean hasSubscriptions() {
+		return !this.sessionDestinations.isEmpty();
+	}
+
+	private void collectMatches(Node node, String[] segments, int index,
+			String destination, Matches matches) {
+
+		Node doubleWildcard = node.doubleWildcardChild;
+		if (doubleWildcard != null) {
+			// '**' matches zero or more segments
+			for (int i = index; i <= segments.length; i++) {
+				collectMatches(doubleWildcard, segments, i, destination, matches);
+			}
+		}
+
+		if (index == segments.length) {
+			for (Map.Entry<String, SubscriberSlots> entry : node.subscriptions
+					.entrySet()) {
+				String pattern = entry.getKey();
+				if (node.literalPath ? pattern.equals(destination)
+						: this.pathMatcher.match(pattern, destination)) {
+					matches.add(entry.getValue().snapshot());
+				}
+			}
+			return;
+		}
+
+		Node literal = node.literalChildren.get(segments[index]);
+		if (literal != null) {
+			collectMatches(literal, segments, index + 1, destination, matches);
+		}
+
+		Node wildcard = node.wildcardChild;
+		if (wildcard != null) {
+			collectMatches(wildcard, segments, index + 1, destination, matches);
+		}
+	}
+
+	/**
+	 * Walks down the trie and creates the missing nodes. Only one node is locked at a
+	 * time. If a node on the path was pruned concurrently the walk starts over.
+	 */
+	private void addToTrie(String destination, int slot) {
+		String[] segments = tokenize(destination);
+		while (true) {
+			Node node = this.root;
+			for (String segment : segments) {
+				synchronized (node) {
+					if (node.removed) {
+						node = null;
+						break;
+					}
+					node = node.getOrCreateChild(segment);
+				}
+			}
+			if (node != null) {
+				synchronized (node) {
+					if (!node.removed) {
+						node.addSlot(destination, slot);
+						return;
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Removes the slot and prunes the nodes that became empty. Pruning locks the parent
+	 * before the child.
+	 */
+	private void removeFromTrie(String destination, int slot) {
+		if (slot == -1) {
+			return;
+		}
+		Node node = this.root;
+		for (String segment : tokenize(destination)) {
+			node = node.getChild(segment);
+			if (node == null) {
+				return;
+			}
+		}
+		synchronized (node) {
+			node.removeSlot(destination, slot);
+		}
+
+		while (node.parent != null) {
+			Node parent = node.parent;
+			synchronized (parent) {
+				synchronized (node) {
+					if (node.removed || !node.isEmpty()) {
+						return;
+					}
+					node.removed = true;
+					parent.removeChild(node);
+				}
+			}
+			node = parent;
+		}
+	}
+
+	private Object lockFor(String sessionId) {
+		int hash = sessionId.hashCode();
+		return this.sessionLocks[(hash ^ hash >>> 16) & (LOCK_STRIPES - 1)];
+	}
+
+	private String[] tokenize(String destination) {
+		return StringUtils.tokenizeToStringArray(destination, this.pathSeparator, false,
+				true);
+	}
+
+	private static boolean isWildcardSegment(String segment) {
+		return segment.indexOf('*') != -1 || segment.indexOf('?') != -1
+				|| segment.indexOf('{') != -1;
+	}
+
+	@Override
+	public String toString() {
+		return "TrieSubscriptionRegistry[" + this.sessionDestinations.size()
+				+ " session(s)]";
+	}
+
+	/**
+	 * Collects the slots of the matching patterns. The slots of a single match are
+	 * returned without copying them.
+	 */
+	private static class Matches {
+
+		private SlotSet first;
+
+		private BitSet union;
+
+		void add(SlotSet slots) {
+			if (slots.isEmpty() || slots == this.first) {
+				return;
+			}
+			if (this.first == null) {
+				this.first = slots;
+				return;
+			}
+			if (this.union == null) {
+				this.union = new BitSet();
+				this.first.addTo(this.union);
+			}
+			slots.addTo(this.union);
+		}
+
+		SlotSet getSlots() {
+			if (this.union != null) {
+				return SlotSet.of(this.union);
+			}
+			return this.first != null ? this.first : SlotSet.EMPTY;
+		}
+	}
+
+	/**
+	 * One segment of the trie. Children and subscriptions are stored in concurrent
+	 * collections so lookups can walk the trie without locking. Modifications lock the
+	 * node, a node that is pruned is marked as removed.
+	 */
+	private static class Node {
+
+		private final Node parent;
+
+		private final String segment;
+
+		/** true if all segments on the path from the root to this node are literals */
+		private final boolean literalPath;
+
+		private final ConcurrentMap<String, Node> literalChildren = new ConcurrentHashMap<>(
+				4);
+
+		private volatile Node wildcardChild;
+
+		private volatile Node doubleWildcardChild;
+
+		/** pattern -> slots of the sessions of all patterns that end in this node */
+		private final ConcurrentMap<String, SubscriberSlots> subscriptions = new ConcurrentHashMap<>(
+				2);
+
+		/** Set when the node is pruned from the trie. Guarded by the node lock */
+		private boolean removed = false;
+
+		Node(Node parent, String segment) {
+			this.parent = parent;
+			this.segment = segment;
+			this.literalPath = (parent == null || parent.literalPath)
+					&& (segment == null || !isWildcardSegment(segment));
+		}
+
+		Node getChild(String childSegment) {
+			if ("**".equals(childSegment)) {
+				return this.doubleWildcardChild;
+			}
+			if (isWildcardSegment(childSegment)) {
+				return this.wildcardChild;
+			}
+			return this.literalChildren.get(childSegment);
+		}
+
+		Node getOrCreateChild(String childSegment) {
+			Node child = getChild(childSegment);
+			if (child == null) {
+				if ("**".equals(childSegment)) {
+					child = new Node(this, childSegment);
+					this.doubleWildcardChild = child;
+				}
+				else if (isWildcardSegment(childSegment)) {
+					child = new Node(this, "*");
+					this.wildcardChild = child;
+				}
+				else {
+					child = new Node(this, childSegment);
+					this.literalChildren.put(childSegment, child);
+				}
+			}
+			return child;
+		}
+
+		void removeChild(Node child) {
+			if (child == this.doubleWildcardChild) {
+				this.doubleWildcardChild = null;
+			}
+			else if (child == this.wildcardChild) {
+				this.wildcardChild = null;
+			}
+			else {
+				this.literalChildren.remove(child.segment, child);
+			}
+		}
+
+		void addSlot(String pattern, int slot) {
+			SubscriberSlots slots = this.subscriptions.get(pattern);
+			if (slots == null) {
+				slots = new SubscriberSlots();
+				this.subscriptions.put(pattern, slots);
+			}
+			slots.add(slot);
+		}
+
+		void removeSlot(String pattern, int slot) {
+			SubscriberSlots slots = this.subscriptions.get(pattern);
+			if (slots != null) {
+				slots.remove(slot);
+				if (slots.isEmpty()) {
+					this.subscriptions.remove(pattern);
+				}
+			}
+		}
+
+		boolean isEmpty() {
+			return this.subscriptions.isEmpty() && this.literalChildren.isEmpty()
+					&& this.wildcardChild == null && this.doubleWildcardChild == null;
+		}
+	}
+
+}
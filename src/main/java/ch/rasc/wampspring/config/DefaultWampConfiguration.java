@@ -18,6 +18,7 @@ package ch.rasc.wampspring.config;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadPoolExecutor;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.config.ConfigurableListableBeanFactory;
@@ -58,9 +59,11 @@ import ch.rasc.wampspring.annotation.WampUnsubscribeListener;
 import ch.rasc.wampspring.broker.DefaultSubscriptionRegistry;
 import ch.rasc.wampspring.broker.SimpleBrokerMessageHandler;
 import ch.rasc.wampspring.broker.SubscriptionRegistry;
+import ch.rasc.wampspring.broker.TrieSubscriptionRegistry;
 import ch.rasc.wampspring.cra.AuthenticationHandler;
 import ch.rasc.wampspring.cra.AuthenticationSecretProvider;
 import ch.rasc.wampspring.cra.DefaultAuthenticationHandler;
+import ch.rasc.wampspring.message.TopicTable;
 import ch.rasc.wampspring.method.MethodParameterConverter;
 import ch.rasc.wampspring.method.WampAnnotationMethodMessageHandler;
 
@@ -118,7 +121,7 @@ public class DefaultWampConfiguration {
 	@Bean
 	public SubscribableChannel clientInboundChannel() {
 		ExecutorSubscribableChannel executorSubscribableChannel = new ExecutorSubscribableChannel(
-				clientInboundChannelExecutor());
+				new InboundMessageQueues(clientInboundChannelExecutor()));
 		configureClientInboundChannel(executorSubscribableChannel);
 		return executorSubscribableChannel;
 	}
@@ -129,14 +132,27 @@ public class DefaultWampConfiguration {
 		}
 	}
 
+	/**
+	 * Fixed pool of threads that handles the messages of the
+	 * {@link #clientInboundChannel()}. The messages of a WebSocket session are queued per
+	 * session and handled in order, one at a time. The pool takes turns between the
+	 * sessions, so one busy client can't occupy all threads.
+	 * <p>
+	 * The work queue of the pool holds at most one entry per session with pending
+	 * messages and is bounded. If it is full the pool rejects the session queue and the
+	 * WebSocket thread that received the message handles it, which slows down the
+	 * clients until the workers catch up.
+	 */
 	@Bean
 	public Executor clientInboundChannelExecutor() {
+		int poolSize = Runtime.getRuntime().availableProcessors() * 2;
 		ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
 		executor.setThreadNamePrefix("wampClientInboundChannel-");
-		executor.setCorePoolSize(Runtime.getRuntime().availableProcessors() * 2);
-		executor.setMaxPoolSize(Integer.MAX_VALUE);
+		executor.setCorePoolSize(poolSize);
+		executor.setMaxPoolSize(poolSize);
 		executor.setKeepAliveSeconds(60);
-		executor.setQueueCapacity(Integer.MAX_VALUE);
+		executor.setQueueCapacity(10000);
+		executor.setRejectedExecutionHandler(new ThreadPoolExecutor.AbortPolicy());
 		executor.setAllowCoreThreadTimeOut(true);
 
 		return executor;
@@ -168,6 +184,24 @@ public class DefaultWampConfiguration {
 		return executor;
 	}
 
+	/**
+	 * Fixed pool of threads that drains the outbound queues of the WebSocket sessions.
+	 * Only used when an outbound queue capacity is configured with
+	 * {@link WebSocketTransportRegistration#setOutboundQueueCapacity(int)}.
+	 */
+	@Bean
+	public Executor clientOutboundQueueExecutor() {
+		int poolSize = Runtime.getRuntime().availableProcessors() * 2;
+		ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+		executor.setThreadNamePrefix("wampClientOutboundQueue-");
+		executor.setCorePoolSize(poolSize);
+		executor.setMaxPoolSize(poolSize);
+		executor.setKeepAliveSeconds(60);
+		executor.setAllowCoreThreadTimeOut(true);
+
+		return executor;
+	}
+
 	/**
 	 * Channel from the application to the {@link #brokerMessageHandler()}
 	 */
@@ -191,13 +225,43 @@ public class DefaultWampConfiguration {
 				subscriptionRegistry(), brokerMessageHandlerMessageSelector());
 
 		messageHandler.setAuthenticationRequiredGlobal(authenticationRequired());
+		messageHandler.setPathMatcher(pathMatcher());
+		messageHandler.setTopicTable(topicTable());
+		messageHandler.setConflatedTopicPatterns(conflatedTopicPatterns());
 
 		return messageHandler;
 	}
 
+	/**
+	 * Topic patterns whose events are conflated by the {@link #brokerMessageHandler()}.
+	 * A client that falls behind only receives the newest event of such a topic instead
+	 * of every event. By default no topic is conflated.
+	 *
+	 * @see SimpleBrokerMessageHandler#setConflatedTopicPatterns(java.util.Collection)
+	 */
+	protected List<String> conflatedTopicPatterns() {
+		return null;
+	}
+
+	/**
+	 * Registry that keeps track of the subscriptions. By default this is a
+	 * {@link DefaultSubscriptionRegistry}. Applications with a lot of sessions and
+	 * subscriptions can override this method and return a
+	 * {@link TrieSubscriptionRegistry} that indexes the topic patterns by their segments.
+	 * A registry should register its topics in the {@link #topicTable()}.
+	 */
 	@Bean
 	public SubscriptionRegistry subscriptionRegistry() {
-		return new DefaultSubscriptionRegistry(pathMatcher());
+		return new DefaultSubscriptionRegistry(pathMatcher(), topicTable());
+	}
+
+	/**
+	 * Table of the subscribed topics. Populated by the {@link #subscriptionRegistry()}
+	 * and used to canonicalize the topicURIs of the messages.
+	 */
+	@Bean
+	public TopicTable topicTable() {
+		return new TopicTable();
 	}
 
 	protected WampMessageSelector brokerMessageHandlerMessageSelector() {
@@ -220,6 +284,8 @@ public class DefaultWampConfiguration {
 				methodMessageHandlerMessageSelector(), messageConverter());
 
 		messageHandler.setAuthenticationRequiredGlobal(authenticationRequired());
+		messageHandler.setMaxConcurrentCalls(maxConcurrentCalls());
+		messageHandler.setMaxCallQueueTime(maxCallQueueTime());
 
 		List<HandlerMethodArgumentResolver> argumentResolvers = new ArrayList<>();
 		addArgumentResolvers(argumentResolvers);
@@ -228,6 +294,28 @@ public class DefaultWampConfiguration {
 		return messageHandler;
 	}
 
+	/**
+	 * Maximum number of CALL messages the {@link #annotationMethodMessageHandler()}
+	 * processes at the same time. Additional CALL messages are answered immediately with
+	 * a CALLERROR message, so clients can back off. By default there is no limit.
+	 *
+	 * @see WampAnnotationMethodMessageHandler#setMaxConcurrentCalls(int)
+	 */
+	protected int maxConcurrentCalls() {
+		return 0;
+	}
+
+	/**
+	 * Maximum time in milliseconds a CALL message may wait in the inbound queue. A CALL
+	 * message that waited longer is answered with a CALLERROR message without calling
+	 * the procedure. By default there is no limit.
+	 *
+	 * @see WampAnnotationMethodMessageHandler#setMaxCallQueueTime(long)
+	 */
+	protected long maxCallQueueTime() {
+		return 0;
+	}
+
 	protected MethodParameterConverter methodParameterConverter() {
 		return new MethodParameterConverter(lookupObjectMapper(), conversionService());
 	}
@@ -334,7 +422,9 @@ public class DefaultWampConfiguration {
 
 		WebMvcWampEndpointRegistry registry = new WebMvcWampEndpointRegistry(handler,
 				getTransportRegistration(), messageBrokerSockJsTaskScheduler(),
-				new MappingJsonFactory(lookupObjectMapper()));
+				new MappingJsonFactory(lookupObjectMapper()),
+				clientOutboundQueueExecutor());
+		registry.setTopicTable(topicTable());
 
 		List<HandshakeInterceptor> handshakeInterceptors = new ArrayList<>();
 		addHandshakeInterceptors(handshakeInterceptors);
@@ -411,6 +501,47 @@ public class DefaultWampConfiguration {
 		return scheduler;
 	}
 
+	/**
+	 * Statistics about the WebSocket sessions, the channels, the executors and the
+	 * broker. They are logged periodically and can be exposed through JMX.
+	 *
+	 * @see WampMessageBrokerStats
+	 */
+	@Bean
+	public WampMessageBrokerStats wampMessageBrokerStats() {
+		WampMessageBrokerStats stats = new WampMessageBrokerStats();
+
+		WebSocketHandler webSocketHandler = subProtocolWebSocketHandler();
+		if (webSocketHandler instanceof SubProtocolWebSocketHandler) {
+			stats.setSubProtocolWebSocketHandler(
+					(SubProtocolWebSocketHandler) webSocketHandler);
+		}
+
+		if (clientInboundChannel() instanceof AbstractMessageChannel) {
+			stats.setClientInboundChannel((AbstractMessageChannel) clientInboundChannel());
+		}
+		if (clientOutboundChannel() instanceof AbstractMessageChannel) {
+			stats.setClientOutboundChannel(
+					(AbstractMessageChannel) clientOutboundChannel());
+		}
+		if (brokerChannel() instanceof AbstractMessageChannel) {
+			stats.setBrokerChannel((AbstractMessageChannel) brokerChannel());
+		}
+
+		stats.setInboundChannelExecutor(clientInboundChannelExecutor());
+		stats.setOutboundChannelExecutor(clientOutboundChannelExecutor());
+		stats.setOutboundQueueExecutor(clientOutboundQueueExecutor());
+		stats.setSockJsTaskScheduler(messageBrokerSockJsTaskScheduler());
+
+		MessageHandler brokerMessageHandler = brokerMessageHandler();
+		if (brokerMessageHandler instanceof SimpleBrokerMessageHandler) {
+			stats.setBrokerMessageHandler(
+					(SimpleBrokerMessageHandler) brokerMessageHandler);
+		}
+
+		return stats;
+	}
+
 	@Bean
 	public static CustomScopeConfigurer webSocketScopeConfigurer(
 			ConfigurableListableBeanFactory beanFactory) {
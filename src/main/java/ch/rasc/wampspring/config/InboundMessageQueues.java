@@ -0,0 +1,203 @@
+/**
+ * Copyright 2014-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ch.rasc.wampspring.config;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.support.MessageHandlingRunnable;
+import org.springframework.util.Assert;
+
+import ch.rasc.wampspring.message.WampMessageHeader;
+
+/**
+ * Executor of the clientInboundChannel that puts the messages of a WebSocket session
+ * into a queue of this session. The queues are drained by a fixed pool of worker
+ * threads. Messages of one session are always handled in order and by only one worker
+ * at a time, and a client that floods the server can occupy at most one worker.
+ * <p>
+ * Tasks that don't handle a message of a WebSocket session are passed directly to the
+ * pool. If the pool rejects a session queue, because its work queue is full or it is
+ * shut down, the queue is drained in the calling thread.
+ */
+class InboundMessageQueues implements Executor {
+
+	/**
+	 * Maximum number of tasks a worker runs for one session before it gives other
+	 * sessions a turn
+	 */
+	private static final int BATCH_SIZE = 32;
+
+	private static final Log logger = LogFactory.getLog(InboundMessageQueues.class);
+
+	private final ConcurrentMap<String, SessionQueue> queues = new ConcurrentHashMap<>();
+
+	private final Executor executor;
+
+	InboundMessageQueues(Executor executor) {
+		Assert.notNull(executor, "'executor' must not be null");
+		this.executor = executor;
+	}
+
+	@Override
+	public void execute(Runnable task) {
+		String webSocketSessionId = null;
+		if (task instanceof MessageHandlingRunnable) {
+			Message<?> message = ((MessageHandlingRunnable) task).getMessage();
+			webSocketSessionId = (String) message.getHeaders()
+					.get(WampMessageHeader.WEBSOCKET_SESSION_ID.name());
+		}
+
+		if (webSocketSessionId == null) {
+			this.executor.execute(task);
+			return;
+		}
+
+		while (true) {
+			SessionQueue queue = this.queues.get(webSocketSessionId);
+			if (queue == null) {
+				queue = new SessionQueue(webSocketSessionId);
+				SessionQueue existingQueue = this.queues.putIfAbsent(webSocketSessionId,
+						queue);
+				if (existingQueue != null) {
+					queue = existingQueue;
+				}
+			}
+			if (queue.add(task)) {
+				return;
+			}
+			// the queue was drained and removed in the meantime
+		}
+	}
+
+	int getQueueCount() {
+		return this.queues.size();
+	}
+
+	private class SessionQueue implements Runnable {
+
+		private final String webSocketSessionId;
+
+		private final ArrayDeque<Runnable> tasks = new ArrayDeque<>();
+
+		private boolean scheduled = false;
+
+		private boolean removed = false;
+
+		SessionQueue(String webSocketSessionId) {
+			this.webSocketSessionId = webSocketSessionId;
+		}
+
+		/**
+		 * Returns false if the queue has already been removed from the map. The caller
+		 * then has to add the task to a new queue.
+		 */
+		boolean add(Runnable task) {
+			synchronized (this) {
+				if (this.removed) {
+					return false;
+				}
+				this.tasks.add(task);
+				if (this.scheduled) {
+					return true;
+				}
+				this.scheduled = true;
+			}
+
+			try {
+				InboundMessageQueues.this.executor.execute(this);
+			}
+			catch (RuntimeException ex) {
+				logRejected(ex);
+				run();
+			}
+			return true;
+		}
+
+		@Override
+		public void run() {
+			while (runBatch()) {
+				try {
+					InboundMessageQueues.this.executor.execute(this);
+					return;
+				}
+				catch (RuntimeException ex) {
+					// the queue is still marked as scheduled, no other worker would pick
+					// up the remaining tasks
+					logRejected(ex);
+				}
+			}
+		}
+
+		private void logRejected(RuntimeException ex) {
+			logger.warn("Failed to schedule the queue of session "
+					+ this.webSocketSessionId
+					+ ". Handling the queued messages in the current thread.", ex);
+		}
+
+		/**
+		 * Runs up to {@link #BATCH_SIZE} tasks.
+		 * @return true if the queue contains more tasks
+		 */
+		private boolean runBatch() {
+			for (int i = 0; i < BATCH_SIZE; i++) {
+				Runnable task;
+				synchronized (this) {
+					task = this.tasks.poll();
+					if (task == null) {
+						this.scheduled = false;
+						removeIfEmpty();
+						return false;
+					}
+				}
+				try {
+					task.run();
+				}
+				catch (Throwable ex) {
+					// the worker has to continue with the next task of the session
+					logger.error("Failed to handle message of session "
+							+ this.webSocketSessionId + ".", ex);
+				}
+			}
+
+			synchronized (this) {
+				if (this.tasks.isEmpty()) {
+					this.scheduled = false;
+					removeIfEmpty();
+					return false;
+				}
+			}
+			return true;
+		}
+
+		/**
+		 * Removes the queue of a session without pending tasks, so the map does not keep
+		 * the queues of closed sessions. Must be called while holding the lock.
+		 */
+		private void removeIfEmpty() {
+			if (this.tasks.isEmpty()) {
+				this.removed = true;
+				InboundMessageQueues.this.queues.remove(this.webSocketSessionId, this);
+			}
+		}
+	}
+
+}
@@ -0,0 +1,245 @@
+/**
+ * Copyright 2014-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ch.rasc.wampspring.config;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.util.Assert;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.WebSocketSession;
+
+import ch.rasc.wampspring.broker.ConflatedEventMessage;
+import ch.rasc.wampspring.message.WampMessage;
+import ch.rasc.wampspring.message.WampMessageType;
+
+/**
+ * Bounded outbound queues, one per WebSocket session, between the clientOutboundChannel
+ * and the WebSocket session. The queues are drained by a fixed pool of worker threads.
+ * Messages of one session are always sent in order and by only one worker at a time.
+ */
+class OutboundMessageQueues {
+
+	/**
+	 * Maximum number of messages a worker sends to one session before it gives other
+	 * sessions a turn
+	 */
+	private static final int BATCH_SIZE = 32;
+
+	private static final Log logger = LogFactory.getLog(OutboundMessageQueues.class);
+
+	private final ConcurrentMap<String, SessionQueue> queues = new ConcurrentHashMap<>();
+
+	private final WampSubProtocolHandler protocolHandler;
+
+	private final int capacity;
+
+	private final OutboundOverflowPolicy overflowPolicy;
+
+	private final Executor executor;
+
+	OutboundMessageQueues(WampSubProtocolHandler protocolHandler, int capacity,
+			OutboundOverflowPolicy overflowPolicy, Executor executor) {
+		Assert.isTrue(capacity > 0, "'capacity' must be greater than 0");
+		Assert.notNull(overflowPolicy, "'overflowPolicy' must not be null");
+		Assert.notNull(executor, "'executor' must not be null");
+		this.protocolHandler = protocolHandler;
+		this.capacity = capacity;
+		this.overflowPolicy = overflowPolicy;
+		this.executor = executor;
+	}
+
+	void enqueue(WebSocketSession session, WampMessage message) {
+		if (!session.isOpen()) {
+			return;
+		}
+
+		SessionQueue queue = this.queues.get(session.getId());
+		if (queue == null) {
+			queue = new SessionQueue(session);
+			SessionQueue existingQueue = this.queues.putIfAbsent(session.getId(), queue);
+			if (existingQueue != null) {
+				queue = existingQueue;
+			}
+		}
+		queue.add(message);
+	}
+
+	void remove(String webSocketSessionId) {
+		SessionQueue queue = this.queues.remove(webSocketSessionId);
+		if (queue != null) {
+			queue.clear();
+		}
+	}
+
+	private static boolean isDroppable(WampMessage message) {
+		WampMessageType type = message.getType();
+		// there is at most one conflated event per topic in the queue. Dropping it would
+		// stop the delivery of all further events of the topic
+		return type != WampMessageType.CALLRESULT && type != WampMessageType.CALLERROR
+				&& !(message instanceof ConflatedEventMessage);
+	}
+
+	private class SessionQueue implements Runnable {
+
+		private final WebSocketSession session;
+
+		private final ArrayDeque<WampMessage> messages = new ArrayDeque<>();
+
+		private boolean scheduled = false;
+
+		SessionQueue(WebSocketSession session) {
+			this.session = session;
+		}
+
+		void add(WampMessage message) {
+			boolean closeSession = false;
+			boolean schedule = false;
+
+			synchronized (this) {
+				if (this.messages.size() >= OutboundMessageQueues.this.capacity
+						&& isDroppable(message)) {
+					switch (OutboundMessageQueues.this.overflowPolicy) {
+					case DROP_OLDEST_EVENT:
+						if (!removeOldestEvent()) {
+							logDropped(message);
+							return;
+						}
+						break;
+					case DROP_NEWEST:
+						logDropped(message);
+						return;
+					default:
+						this.messages.clear();
+						closeSession = true;
+					}
+				}
+
+				if (!closeSession) {
+					this.messages.add(message);
+					if (!this.scheduled) {
+						this.scheduled = true;
+						schedule = true;
+					}
+				}
+			}
+
+			if (schedule) {
+				try {
+					OutboundMessageQueues.this.executor.execute(this);
+				}
+				catch (RuntimeException ex) {
+					logRejected(ex);
+					run();
+				}
+			}
+
+			if (closeSession) {
+				logger.debug("Outbound queue of session " + this.session.getId()
+						+ " is full. Closing session.");
+				try {
+					this.session.close(CloseStatus.SESSION_NOT_RELIABLE);
+				}
+				catch (IOException ex) {
+					// Ignore
+				}
+			}
+		}
+
+		synchronized void clear() {
+			this.messages.clear();
+		}
+
+		/**
+		 * Sends the queued messages. If the executor rejects the next batch the queue is
+		 * drained in the current thread, it is still marked as scheduled and no other
+		 * worker would pick it up.
+		 */
+		@Override
+		public void run() {
+			while (sendBatch()) {
+				try {
+					OutboundMessageQueues.this.executor.execute(this);
+					return;
+				}
+				catch (RuntimeException ex) {
+					logRejected(ex);
+				}
+			}
+		}
+
+		/**
+		 * Sends up to {@link #BATCH_SIZE} messages.
+		 * @return true if the queue contains more messages
+		 */
+		private boolean sendBatch() {
+			for (int i = 0; i < BATCH_SIZE; i++) {
+				WampMessage message;
+				synchronized (this) {
+					message = this.messages.poll();
+					if (message == null) {
+						this.scheduled = false;
+						return false;
+					}
+				}
+				OutboundMessageQueues.this.protocolHandler
+						.sendMessageToClient(this.session, message);
+			}
+
+			synchronized (this) {
+				if (this.messages.isEmpty()) {
+					this.scheduled = false;
+					return false;
+				}
+			}
+			return true;
+		}
+
+		private void logRejected(RuntimeException ex) {
+			logger.warn("Failed to schedule the outbound queue of session "
+					+ this.session.getId()
+					+ ". Sending the queued messages in the current thread.", ex);
+		}
+
+		private boolean removeOldestEvent() {
+			Iterator<WampMessage> it = this.messages.iterator();
+			while (it.hasNext()) {
+				WampMessage queuedMessage = it.next();
+				if (queuedMessage.getType() == WampMessageType.EVENT
+						&& isDroppable(queuedMessage)) {
+					it.remove();
+					logDropped(queuedMessage);
+					return true;
+				}
+			}
+			return false;
+		}
+
+		private void logDropped(WampMessage message) {
+			if (logger.isDebugEnabled()) {
+				logger.debug("Outbound queue of session " + this.session.getId()
+						+ " is full. Dropping " + message);
+			}
+		}
+	}
+
+}
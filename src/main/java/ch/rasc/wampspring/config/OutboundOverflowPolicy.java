@@ -0,0 +1,44 @@
+/**
+ * Copyright 2014-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ch.rasc.wampspring.config;
+
+/**
+ * What to do when a message is sent to a WebSocket session whose outbound queue is
+ * full. CALLRESULT and CALLERROR messages are never dropped, they are always added to
+ * the queue even if this exceeds the capacity. The same applies to events of conflated
+ * topics, because there is never more than one of them per topic in the queue.
+ *
+ * @see WebSocketTransportRegistration#setOutboundQueueCapacity(int)
+ */
+public enum OutboundOverflowPolicy {
+
+	/**
+	 * Remove the oldest queued EVENT message and add the new message. If the queue
+	 * contains no EVENT message the new message is dropped.
+	 */
+	DROP_OLDEST_EVENT,
+
+	/**
+	 * Drop the new message.
+	 */
+	DROP_NEWEST,
+
+	/**
+	 * Discard all queued messages and close the WebSocket session.
+	 */
+	CLOSE_SESSION
+
+}
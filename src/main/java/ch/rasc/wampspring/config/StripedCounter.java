@@ -0,0 +1,63 @@
+/**
+ * Copyright 2014-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ch.rasc.wampspring.config;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counter that is incremented by many threads. Every thread increments one of several
+ * cells, selected by its thread id, and {@link #sum()} adds up the cells. The cells are
+ * spaced a cache line apart, so threads that increment different cells do not contend
+ * for the same cache line.
+ */
+class StripedCounter {
+
+	/**
+	 * Distance between two cells in longs. 8 longs are 64 bytes, the size of a cache
+	 * line on most processors.
+	 */
+	private static final int PADDING = 8;
+
+	private static final int MAX_STRIPES = 32;
+
+	private final AtomicLongArray cells;
+
+	private final int mask;
+
+	StripedCounter() {
+		int stripes = 1;
+		int processors = Runtime.getRuntime().availableProcessors();
+		while (stripes < processors && stripes < MAX_STRIPES) {
+			stripes <<= 1;
+		}
+		this.mask = stripes - 1;
+		this.cells = new AtomicLongArray(stripes * PADDING);
+	}
+
+	void increment() {
+		int stripe = (int) (Thread.currentThread().getId() & this.mask);
+		this.cells.incrementAndGet(stripe * PADDING);
+	}
+
+	long sum() {
+		long sum = 0;
+		for (int i = 0; i < this.cells.length(); i += PADDING) {
+			sum += this.cells.get(i);
+		}
+		return sum;
+	}
+
+}
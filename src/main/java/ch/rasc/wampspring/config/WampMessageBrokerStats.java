@@ -0,0 +1,392 @@
+/**
+ * Copyright 2014-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ch.rasc.wampspring.config;
+
+import java.util.Date;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.support.AbstractMessageChannel;
+import org.springframework.messaging.support.ChannelInterceptorAdapter;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+import org.springframework.util.Assert;
+import org.springframework.web.socket.messaging.SubProtocolWebSocketHandler;
+
+import ch.rasc.wampspring.broker.SimpleBrokerMessageHandler;
+import ch.rasc.wampspring.message.WampMessage;
+import ch.rasc.wampspring.message.WampMessageType;
+
+/**
+ * Gathers statistics about the WAMP message broker, similar to Spring's
+ * WebSocketMessageBrokerStats: the WebSocket sessions, the number of messages per
+ * {@link WampMessageType} sent through the clientInbound, clientOutbound and broker
+ * channels, the state of the executors and of the {@link SimpleBrokerMessageHandler}.
+ * <p>
+ * The statistics are logged at INFO level every {@link #setLoggingPeriod(long)
+ * loggingPeriod} milliseconds, together with the message rates of the last period. The
+ * bean is annotated with {@link ManagedResource}, so an {@code AnnotationMBeanExporter},
+ * e.g. the one Spring Boot registers, exposes the statistics through JMX.
+ * <p>
+ * The message counters are incremented by the threads that send the messages. They are
+ * striped, so concurrent senders do not contend for the same counter.
+ */
+@ManagedResource(description = "Statistics of the WAMP message broker")
+public class WampMessageBrokerStats implements InitializingBean, DisposableBean {
+
+	private static final Log logger = LogFactory.getLog(WampMessageBrokerStats.class);
+
+	private SubProtocolWebSocketHandler webSocketHandler;
+
+	private MessageCounter inboundMessageCounter;
+
+	private MessageCounter outboundMessageCounter;
+
+	private MessageCounter brokerMessageCounter;
+
+	private Executor inboundChannelExecutor;
+
+	private Executor outboundChannelExecutor;
+
+	private Executor outboundQueueExecutor;
+
+	private ThreadPoolTaskScheduler sockJsTaskScheduler;
+
+	private SimpleBrokerMessageHandler brokerMessageHandler;
+
+	private long loggingPeriod = 30 * 60 * 1000;
+
+	private ScheduledFuture<?> loggingTask;
+
+	public void setSubProtocolWebSocketHandler(
+			SubProtocolWebSocketHandler webSocketHandler) {
+		this.webSocketHandler = webSocketHandler;
+	}
+
+	/**
+	 * Counts the messages sent through the clientInboundChannel
+	 */
+	public void setClientInboundChannel(AbstractMessageChannel channel) {
+		this.inboundMessageCounter = addMessageCounter(channel);
+	}
+
+	/**
+	 * Counts the messages sent through the clientOutboundChannel
+	 */
+	public void setClientOutboundChannel(AbstractMessageChannel channel) {
+		this.outboundMessageCounter = addMessageCounter(channel);
+	}
+
+	/**
+	 * Counts the messages sent through the brokerChannel
+	 */
+	public void setBrokerChannel(AbstractMessageChannel channel) {
+		this.brokerMessageCounter = addMessageCounter(channel);
+	}
+
+	public void setInboundChannelExecutor(Executor inboundChannelExecutor) {
+		this.inboundChannelExecutor = inboundChannelExecutor;
+	}
+
+	public void setOutboundChannelExecutor(Executor outboundChannelExecutor) {
+		this.outboundChannelExecutor = outboundChannelExecutor;
+	}
+
+	public void setOutboundQueueExecutor(Executor outboundQueueExecutor) {
+		this.outboundQueueExecutor = outboundQueueExecutor;
+	}
+
+	/**
+	 * The scheduler that runs the logging task. Its own statistics are reported as well.
+	 */
+	public void setSockJsTaskScheduler(ThreadPoolTaskScheduler sockJsTaskScheduler) {
+		this.sockJsTaskScheduler = sockJsTaskScheduler;
+	}
+
+	public void setBrokerMessageHandler(SimpleBrokerMessageHandler brokerMessageHandler) {
+		this.brokerMessageHandler = brokerMessageHandler;
+	}
+
+	/**
+	 * How often in milliseconds the statistics are logged. A value of 0 or less disables
+	 * the logging. Default is 30 minutes.
+	 */
+	public void setLoggingPeriod(long loggingPeriod) {
+		this.loggingPeriod = loggingPeriod;
+	}
+
+	@ManagedAttribute(description = "Logging period in milliseconds")
+	public long getLoggingPeriod() {
+		return this.loggingPeriod;
+	}
+
+	@Override
+	public void afterPropertiesSet() {
+		if (this.sockJsTaskScheduler != null && this.loggingPeriod > 0
+				&& logger.isInfoEnabled()) {
+			this.loggingTask = this.sockJsTaskScheduler.scheduleAtFixedRate(
+					new LoggingTask(),
+					new Date(System.currentTimeMillis() + this.loggingPeriod),
+					this.loggingPeriod);
+		}
+	}
+
+	@Override
+	public void destroy() {
+		if (this.loggingTask != null) {
+			this.loggingTask.cancel(false);
+			this.loggingTask = null;
+		}
+	}
+
+	@ManagedAttribute(description = "WebSocket sessions")
+	public String getWebSocketSessionStatsInfo() {
+		return this.webSocketHandler != null ? this.webSocketHandler.getStatsInfo()
+				: "null";
+	}
+
+	@ManagedAttribute(description = "Messages sent through the clientInboundChannel")
+	public String getClientInboundChannelStatsInfo() {
+		return getMessageCounterStatsInfo(this.inboundMessageCounter);
+	}
+
+	@ManagedAttribute(description = "Messages sent through the clientOutboundChannel")
+	public String getClientOutboundChannelStatsInfo() {
+		return getMessageCounterStatsInfo(this.outboundMessageCounter);
+	}
+
+	@ManagedAttribute(description = "Messages sent through the brokerChannel")
+	public String getBrokerChannelStatsInfo() {
+		return getMessageCounterStatsInfo(this.brokerMessageCounter);
+	}
+
+	@ManagedAttribute(description = "Executor of the clientInboundChannel")
+	public String getClientInboundExecutorStatsInfo() {
+		return getExecutorStatsInfo(this.inboundChannelExecutor);
+	}
+
+	@ManagedAttribute(description = "Executor of the clientOutboundChannel")
+	public String getClientOutboundExecutorStatsInfo() {
+		return getExecutorStatsInfo(this.outboundChannelExecutor);
+	}
+
+	@ManagedAttribute(description = "Executor that drains the outbound session queues")
+	public String getClientOutboundQueueExecutorStatsInfo() {
+		return getExecutorStatsInfo(this.outboundQueueExecutor);
+	}
+
+	@ManagedAttribute(description = "SockJS task scheduler")
+	public String getSockJsTaskSchedulerStatsInfo() {
+		if (this.sockJsTaskScheduler == null) {
+			return "null";
+		}
+		return getExecutorStatsInfo(this.sockJsTaskScheduler.getScheduledExecutor());
+	}
+
+	@ManagedAttribute(description = "Simple broker")
+	public String getBrokerStatsInfo() {
+		return this.brokerMessageHandler != null
+				? this.brokerMessageHandler.getStatsInfo()
+				: "null";
+	}
+
+	/**
+	 * Returns the number of messages of the given type sent through the
+	 * clientInboundChannel
+	 */
+	public long getClientInboundMessageCount(WampMessageType type) {
+		return this.inboundMessageCounter != null
+				? this.inboundMessageCounter.getCount(type)
+				: 0;
+	}
+
+	/**
+	 * Returns the number of messages of the given type sent through the
+	 * clientOutboundChannel
+	 */
+	public long getClientOutboundMessageCount(WampMessageType type) {
+		return this.outboundMessageCounter != null
+				? this.outboundMessageCounter.getCount(type)
+				: 0;
+	}
+
+	/**
+	 * Returns the number of messages of the given type sent through the brokerChannel
+	 */
+	public long getBrokerMessageCount(WampMessageType type) {
+		return this.brokerMessageCounter != null
+				? this.brokerMessageCounter.getCount(type)
+				: 0;
+	}
+
+	private static MessageCounter addMessageCounter(AbstractMessageChannel channel) {
+		Assert.notNull(channel, "'channel' must not be null");
+		MessageCounter messageCounter = new MessageCounter();
+		channel.addInterceptor(messageCounter);
+		return messageCounter;
+	}
+
+	private static String getMessageCounterStatsInfo(MessageCounter messageCounter) {
+		if (messageCounter == null) {
+			return "null";
+		}
+		return formatCounts(messageCounter.getCounts(), null, 0);
+	}
+
+	/**
+	 * Formats the counts of the message types that occurred at least once. If previous
+	 * counts are provided the rate per second since then is added.
+	 */
+	private static String formatCounts(long[] counts, long[] previousCounts,
+			long elapsedMillis) {
+		StringBuilder sb = new StringBuilder();
+		for (WampMessageType type : WampMessageType.values()) {
+			long count = counts[type.ordinal()];
+			if (count == 0) {
+				continue;
+			}
+			if (sb.length() > 0) {
+				sb.append(", ");
+			}
+			sb.append(type).append(" = ").append(count);
+			if (previousCounts != null && elapsedMillis > 0) {
+				long delta = count - previousCounts[type.ordinal()];
+				sb.append(" (").append(String.format("%.1f", delta * 1000.0 / elapsedMillis))
+						.append("/s)");
+			}
+		}
+		return sb.length() > 0 ? sb.toString() : "no messages";
+	}
+
+	private static String getExecutorStatsInfo(Executor executor) {
+		if (executor == null) {
+			return "null";
+		}
+		if (executor instanceof ThreadPoolTaskExecutor) {
+			executor = ((ThreadPoolTaskExecutor) executor).getThreadPoolExecutor();
+		}
+		if (executor instanceof ThreadPoolExecutor) {
+			ThreadPoolExecutor pool = (ThreadPoolExecutor) executor;
+			return "pool size = " + pool.getPoolSize() + ", active threads = "
+					+ pool.getActiveCount() + ", queued tasks = " + pool.getQueue().size()
+					+ ", completed tasks = " + pool.getCompletedTaskCount();
+		}
+		return "unknown";
+	}
+
+	@Override
+	public String toString() {
+		return toString(getClientInboundChannelStatsInfo(),
+				getClientOutboundChannelStatsInfo(), getBrokerChannelStatsInfo());
+	}
+
+	private String toString(String inboundChannelInfo, String outboundChannelInfo,
+			String brokerChannelInfo) {
+		return "WebSocketSession[" + getWebSocketSessionStatsInfo() + "]"
+				+ ", clientInboundChannel[" + inboundChannelInfo + "]"
+				+ ", clientOutboundChannel[" + outboundChannelInfo + "]"
+				+ ", brokerChannel[" + brokerChannelInfo + "]"
+				+ ", inboundChannelExecutor[" + getClientInboundExecutorStatsInfo() + "]"
+				+ ", outboundChannelExecutor[" + getClientOutboundExecutorStatsInfo()
+				+ "]" + ", outboundQueueExecutor["
+				+ getClientOutboundQueueExecutorStatsInfo() + "]" + ", sockJsScheduler["
+				+ getSockJsTaskSchedulerStatsInfo() + "]" + ", broker["
+				+ getBrokerStatsInfo() + "]";
+	}
+
+	/**
+	 * Counts the {@link WampMessage}s sent through a channel by their type
+	 */
+	private static class MessageCounter extends ChannelInterceptorAdapter {
+
+		private final StripedCounter[] counters;
+
+		MessageCounter() {
+			this.counters = new StripedCounter[WampMessageType.values().length];
+			for (int i = 0; i < this.counters.length; i++) {
+				this.counters[i] = new StripedCounter();
+			}
+		}
+
+		@Override
+		public Message<?> preSend(Message<?> message, MessageChannel channel) {
+			if (message instanceof WampMessage) {
+				this.counters[((WampMessage) message).getType().ordinal()].increment();
+			}
+			return message;
+		}
+
+		long getCount(WampMessageType type) {
+			return this.counters[type.ordinal()].sum();
+		}
+
+		long[] getCounts() {
+			long[] counts = new long[this.counters.length];
+			for (int i = 0; i < counts.length; i++) {
+				counts[i] = this.counters[i].sum();
+			}
+			return counts;
+		}
+	}
+
+	/**
+	 * Logs the statistics and the message rates since the previous run
+	 */
+	private class LoggingTask implements Runnable {
+
+		private final long[][] previousCounts = new long[3][WampMessageType
+				.values().length];
+
+		private long previousTime = System.currentTimeMillis();
+
+		@Override
+		public void run() {
+			long now = System.currentTimeMillis();
+			long elapsedMillis = now - this.previousTime;
+			this.previousTime = now;
+
+			logger.info(WampMessageBrokerStats.this.toString(
+					rates(0, WampMessageBrokerStats.this.inboundMessageCounter,
+							elapsedMillis),
+					rates(1, WampMessageBrokerStats.this.outboundMessageCounter,
+							elapsedMillis),
+					rates(2, WampMessageBrokerStats.this.brokerMessageCounter,
+							elapsedMillis)));
+		}
+
+		private String rates(int index, MessageCounter messageCounter,
+				long elapsedMillis) {
+			if (messageCounter == null) {
+				return "null";
+			}
+			long[] counts = messageCounter.getCounts();
+			String info = formatCounts(counts, this.previousCounts[index],
+					elapsedMillis);
+			this.previousCounts[index] = counts;
+			return info;
+		}
+	}
+
+}
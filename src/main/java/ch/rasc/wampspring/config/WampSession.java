@@ -15,43 +15,94 @@
  */
 package ch.rasc.wampspring.config;
 
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.apache.commons.logging.LogFactory;
 import org.springframework.util.StringUtils;
 import org.springframework.web.socket.WebSocketSession;
 
 /**
+ * WAMP state of a WebSocket session. {@link WampSubProtocolHandler} creates one instance
+ * when the WebSocket session starts, stores it in the session attribute
+ * {@link #WAMP_SESSION_NAME} and attaches it to every message of the session. The
+ * authentication state, the prefixes and the mutex are kept in fields of this instance,
+ * the attributes are stored in the WebSocket session.
+ *
  * @author Rossen Stoyanchev
  * @author Ralph Schaer
  */
 public class WampSession {
 
-	private final static String PREFIXES = WampSession.class.getName() + ".PREFIXES";
-
-	private final static String AUTH_KEY = WampSession.class.getName() + ".AUTH_KEY";
-
-	private final static String CHALLENGE = WampSession.class.getName() + ".CHALLENGE";
-
-	private final static String SIGNATURE = WampSession.class.getName() + ".SIGNATURE";
-
-	/** Key for the mutex session attribute */
+	/**
+	 * Key for the mutex session attribute. Read when the WampSession is created, must be
+	 * set before the WebSocket session starts, e.g. by a HandshakeInterceptor
+	 */
 	public static final String SESSION_MUTEX_NAME = WampSession.class.getName()
 			+ ".MUTEX";
 
-	/** Key set after the session is completed */
+	/** Key set in the WebSocket session attributes after the session is completed */
 	public static final String SESSION_COMPLETED_NAME = WampSession.class.getName()
 			+ ".COMPLETED";
 
+	/**
+	 * Key for the session attribute that enables the compression of outbound topic URIs
+	 * into the CURIEs of the client. Read when the WampSession is created.
+	 *
+	 * @see WebMvcWampWebSocketEndpointRegistration#withCurieCompression()
+	 */
+	public static final String CURIE_COMPRESSION_NAME = WampSession.class.getName()
+			+ ".CURIE_COMPRESSION";
+
+	/** Key for the session attribute that holds the WampSession of a WebSocket session */
+	public static final String WAMP_SESSION_NAME = WampSession.class.getName()
+			+ ".WAMP_SESSION";
+
 	/** Prefix for the name of session attributes used to store destruction callbacks. */
 	public static final String DESTRUCTION_CALLBACK_NAME_PREFIX = WampSession.class
 			.getName() + ".DESTRUCTION_CALLBACK.";
 
 	private final WebSocketSession webSocketSession;
 
+	private final Object sessionMutex;
+
+	private final boolean curieCompression;
+
+	private volatile boolean sessionCompleted = false;
+
+	private volatile String authKey;
+
+	private volatile String challenge;
+
+	private volatile String signature;
+
+	private volatile Map<String, String> prefixes;
+
+	/** Compiled from {@link #prefixes} by {@link #addPrefix(String, String)} */
+	private volatile PrefixTable prefixTable;
+
 	public WampSession(WebSocketSession webSocketSession) {
 		this.webSocketSession = webSocketSession;
+
+		Map<String, Object> attributes = webSocketSession.getAttributes();
+		Object mutex = attributes.get(SESSION_MUTEX_NAME);
+		this.sessionMutex = mutex != null ? mutex : attributes;
+		this.curieCompression = Boolean.TRUE
+				.equals(attributes.get(CURIE_COMPRESSION_NAME));
+	}
+
+	/**
+	 * Returns the WampSession {@link WampSubProtocolHandler} created for the WebSocket
+	 * session. If the session was not started by the handler a new instance without any
+	 * WAMP state is returned.
+	 */
+	public static WampSession from(WebSocketSession webSocketSession) {
+		Object wampSession = webSocketSession.getAttributes().get(WAMP_SESSION_NAME);
+		if (wampSession instanceof WampSession) {
+			return (WampSession) wampSession;
+		}
+		return new WampSession(webSocketSession);
 	}
 
 	/**
@@ -135,18 +186,14 @@ public class WampSession {
 	 * @return the session mutex to use (never {@code null})
 	 */
 	public Object getSessionMutex() {
-		Object mutex = getAttribute(SESSION_MUTEX_NAME);
-		if (mutex == null) {
-			mutex = this.webSocketSession.getAttributes();
-		}
-		return mutex;
+		return this.sessionMutex;
 	}
 
 	/**
 	 * Whether the {@link #sessionCompleted()} was already invoked.
 	 */
 	public boolean isSessionCompleted() {
-		return getAttribute(SESSION_COMPLETED_NAME) != null;
+		return this.sessionCompleted;
 	}
 
 	/**
@@ -156,6 +203,7 @@ public class WampSession {
 		synchronized (getSessionMutex()) {
 			if (!isSessionCompleted()) {
 				executeDestructionCallbacks();
+				this.sessionCompleted = true;
 				setAttribute(SESSION_COMPLETED_NAME, Boolean.TRUE);
 			}
 		}
@@ -186,41 +234,58 @@ public class WampSession {
 	}
 
 	public String getAuthKey() {
-		return getAttribute(AUTH_KEY);
+		return this.authKey;
 	}
 
 	public void setAuthKey(String authKey) {
-		setAttribute(AUTH_KEY, authKey);
+		this.authKey = authKey;
 	}
 
 	public String getChallenge() {
-		return getAttribute(CHALLENGE);
+		return this.challenge;
 	}
 
 	public void setChallenge(String challenge) {
-		setAttribute(CHALLENGE, challenge);
+		this.challenge = challenge;
 	}
 
 	public String getSignature() {
-		return getAttribute(SIGNATURE);
+		return this.signature;
 	}
 
 	public void setSignature(String signature) {
-		setAttribute(SIGNATURE, signature);
+		this.signature = signature;
 	}
 
 	public void addPrefix(String prefix, String uri) {
-		Map<String, String> prefixes = getPrefixes();
-		if (prefixes == null) {
-			prefixes = new HashMap<>();
-			setAttribute(PREFIXES, prefixes);
+		synchronized (this.sessionMutex) {
+			Map<String, String> currentPrefixes = this.prefixes;
+			if (currentPrefixes == null) {
+				currentPrefixes = new ConcurrentHashMap<>();
+				this.prefixes = currentPrefixes;
+			}
+			currentPrefixes.put(prefix, uri);
+			this.prefixTable = new PrefixTable(currentPrefixes);
 		}
-		prefixes.put(prefix, uri);
 	}
 
 	public boolean hasPrefixes() {
-		Map<String, String> prefixes = getPrefixes();
-		return prefixes == null || prefixes.isEmpty();
+		Map<String, String> currentPrefixes = getPrefixes();
+		return currentPrefixes != null && !currentPrefixes.isEmpty();
+	}
+
+	/**
+	 * Expands a CURIE 'prefix:suffix' with a prefix of this session into the full URI.
+	 * Other URIs are returned unchanged. The expanded URIs are cached per session. They
+	 * are not interned, topic URIs are shared by the
+	 * {@link ch.rasc.wampspring.message.TopicTable} instead.
+	 */
+	public String expandCurie(String uri) {
+		PrefixTable table = this.prefixTable;
+		if (uri == null || table == null) {
+			return uri;
+		}
+		return table.expand(uri);
 	}
 
 	public String getPrefix(String curie) {
@@ -232,7 +297,121 @@ public class WampSession {
 	}
 
 	public Map<String, String> getPrefixes() {
-		return getAttribute(PREFIXES);
+		return this.prefixes;
+	}
+
+	/**
+	 * Whether topic URIs of outbound EVENT messages are sent as CURIEs of this session
+	 */
+	public boolean isCurieCompression() {
+		return this.curieCompression;
+	}
+
+	/**
+	 * Returns the CURIE 'prefix:suffix' of the uri if it starts with the URI of one of the
+	 * prefixes of this session, otherwise the uri itself. If more than one prefix matches
+	 * the longest is used. The result is cached per uri, so the prefixes are only scanned
+	 * the first time an uri is compacted.
+	 */
+	public String compactUri(String uri) {
+		PrefixTable table = this.prefixTable;
+		if (uri == null || table == null) {
+			return uri;
+		}
+		return table.compact(uri);
+	}
+
+	/**
+	 * Immutable copy of the prefixes of a session. A CURIE is matched against the
+	 * prefixes without allocating a substring for the prefix. The expanded URIs are
+	 * cached per CURIE.
+	 */
+	private static final class PrefixTable {
+
+		private static final int MAX_CACHED_URIS = 1024;
+
+		private final String[] prefixes;
+
+		private final String[] uris;
+
+		private final ConcurrentMap<String, String> expandedUris = new ConcurrentHashMap<>();
+
+		/** uri -> CURIE, or the uri itself if no prefix matches */
+		private final ConcurrentMap<String, String> compactedUris = new ConcurrentHashMap<>();
+
+		PrefixTable(Map<String, String> prefixMap) {
+			this.prefixes = new String[prefixMap.size()];
+			this.uris = new String[prefixMap.size()];
+			int i = 0;
+			for (Map.Entry<String, String> entry : prefixMap.entrySet()) {
+				this.prefixes[i] = entry.getKey();
+				this.uris[i] = entry.getValue();
+				i++;
+			}
+		}
+
+		String expand(String uri) {
+			// a CURIE contains exactly one colon with a prefix and a suffix around it
+			int colon = uri.indexOf(':');
+			if (colon <= 0 || colon == uri.length() - 1
+					|| uri.indexOf(':', colon + 1) != -1) {
+				return uri;
+			}
+
+			for (int i = 0; i < this.prefixes.length; i++) {
+				String prefix = this.prefixes[i];
+				if (prefix.length() == colon && uri.regionMatches(0, prefix, 0, colon)) {
+					String expandedUri = this.expandedUris.get(uri);
+					if (expandedUri == null) {
+						String prefixUri = this.uris[i];
+						expandedUri = new StringBuilder(
+								prefixUri.length() + uri.length() - colon - 1)
+										.append(prefixUri)
+										.append(uri, colon + 1, uri.length()).toString();
+						if (this.expandedUris.size() < MAX_CACHED_URIS) {
+							this.expandedUris.put(uri, expandedUri);
+						}
+					}
+					return expandedUri;
+				}
+			}
+			return uri;
+		}
+
+		String compact(String uri) {
+			String compactedUri = this.compactedUris.get(uri);
+			if (compactedUri != null) {
+				return compactedUri;
+			}
+
+			int match = -1;
+			for (int i = 0; i < this.uris.length; i++) {
+				String prefixUri = this.uris[i];
+				if (uri.length() > prefixUri.length() && uri.startsWith(prefixUri)
+						&& (match == -1 || prefixUri.length() > this.uris[match].length())) {
+					match = i;
+				}
+			}
+
+			compactedUri = uri;
+			if (match != -1) {
+				String prefixUri = this.uris[match];
+				// the client only expands a CURIE with exactly one colon
+				if (this.prefixes[match].indexOf(':') == -1
+						&& uri.indexOf(':', prefixUri.length()) == -1) {
+					compactedUri = new StringBuilder(this.prefixes[match].length() + 1
+							+ uri.length() - prefixUri.length())
+									.append(this.prefixes[match]).append(':')
+									.append(uri, prefixUri.length(), uri.length())
+									.toString();
+				}
+			}
+
+			if (this.compactedUris.size() < MAX_CACHED_URIS) {
+				this.compactedUris.put(uri, compactedUri);
+			}
+			return compactedUri;
+		}
 	}
 
 }
@@ -18,6 +18,7 @@ package ch.rasc.wampspring.config;
 import java.io.IOException;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.Executor;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -35,9 +36,14 @@ import com.fasterxml.jackson.core.JsonFactory;
 
 import ch.rasc.wampspring.message.CallErrorMessage;
 import ch.rasc.wampspring.message.CallMessage;
+import ch.rasc.wampspring.message.EventMessage;
+import ch.rasc.wampspring.message.PrefixMessage;
+import ch.rasc.wampspring.message.PubSubMessage;
+import ch.rasc.wampspring.message.TopicTable;
 import ch.rasc.wampspring.message.UnsubscribeMessage;
 import ch.rasc.wampspring.message.WampMessage;
 import ch.rasc.wampspring.message.WampMessageHeader;
+import ch.rasc.wampspring.message.WampMessageType;
 import ch.rasc.wampspring.message.WelcomeMessage;
 
 /**
@@ -57,10 +63,32 @@ public class WampSubProtocolHandler implements SubProtocolHandler {
 
 	private final JsonFactory jsonFactory;
 
+	private OutboundMessageQueues outboundQueues;
+
+	private TopicTable topicTable;
+
 	public WampSubProtocolHandler(JsonFactory jsonFactory) {
 		this.jsonFactory = jsonFactory;
 	}
 
+	/**
+	 * Send the messages to the clients through a bounded queue per WebSocket session that
+	 * is drained by the given executor.
+	 */
+	void enableOutboundQueues(int capacity, OutboundOverflowPolicy overflowPolicy,
+			Executor executor) {
+		this.outboundQueues = new OutboundMessageQueues(this, capacity, overflowPolicy,
+				executor);
+	}
+
+	/**
+	 * The topicURIs of the decoded publish/subscribe messages are canonicalized with this
+	 * table
+	 */
+	void setTopicTable(TopicTable topicTable) {
+		this.topicTable = topicTable;
+	}
+
 	@Override
 	public List<String> getSupportedProtocols() {
 		return Collections.singletonList("wamp");
@@ -76,8 +104,8 @@ public class WampSubProtocolHandler implements SubProtocolHandler {
 		Assert.isInstanceOf(TextMessage.class, webSocketMessage);
 		WampMessage wampMessage = null;
 		try {
-			wampMessage = WampMessage.fromJson(session, this.jsonFactory,
-					((TextMessage) webSocketMessage).getPayload());
+			wampMessage = WampMessage.fromJson(WampSession.from(session),
+					this.jsonFactory, ((TextMessage) webSocketMessage).getPayload());
 		}
 		catch (Throwable ex) {
 			if (logger.isErrorEnabled()) {
@@ -87,6 +115,16 @@ public class WampSubProtocolHandler implements SubProtocolHandler {
 			return;
 		}
 
+		if (this.topicTable != null && wampMessage instanceof PubSubMessage) {
+			this.topicTable.canonicalize((PubSubMessage) wampMessage);
+		}
+
+		if (wampMessage instanceof PrefixMessage) {
+			PrefixMessage prefixMessage = (PrefixMessage) wampMessage;
+			wampMessage.getWampSession().addPrefix(prefixMessage.getPrefix(),
+					prefixMessage.getUri());
+		}
+
 		try {
 			WampSessionContextHolder.setAttributesFromMessage(wampMessage);
 			outputChannel.send(wampMessage);
@@ -126,14 +164,31 @@ public class WampSubProtocolHandler implements SubProtocolHandler {
 			return;
 		}
 
+		if (this.outboundQueues != null) {
+			this.outboundQueues.enqueue(session, (WampMessage) message);
+		}
+		else {
+			sendMessageToClient(session, (WampMessage) message);
+		}
+	}
+
+	void sendMessageToClient(WebSocketSession session, WampMessage message) {
 		boolean closeWebSocketSession = false;
 		try {
-			String json = ((WampMessage) message).toJson(this.jsonFactory);
-			session.sendMessage(new TextMessage(json));
+			session.sendMessage(toTextMessage(session, message));
 		}
 		catch (SessionLimitExceededException ex) {
-			// Bad session, just get out
-			throw ex;
+			if (this.outboundQueues == null) {
+				// Bad session, just get out
+				throw ex;
+			}
+			// the queue worker has no caller that handles the exception
+			try {
+				session.close(ex.getStatus());
+			}
+			catch (IOException e) {
+				// Ignore
+			}
 		}
 		catch (Throwable ex) {
 			// Could be part of normal workflow (e.g. browser tab closed)
@@ -153,6 +208,29 @@ public class WampSubProtocolHandler implements SubProtocolHandler {
 		}
 	}
 
+	/**
+	 * Encodes the message. The topicURI of an EVENT message is replaced with the CURIE of
+	 * the receiver if the receiver enabled CURIE compression and registered a matching
+	 * prefix. Such a frame can't be shared with the other receivers of the event.
+	 */
+	private TextMessage toTextMessage(WebSocketSession session, WampMessage message)
+			throws IOException {
+		if (message.getType() == WampMessageType.EVENT) {
+			Object wampSession = session.getAttributes()
+					.get(WampSession.WAMP_SESSION_NAME);
+			if (wampSession instanceof WampSession
+					&& ((WampSession) wampSession).isCurieCompression()) {
+				EventMessage eventMessage = (EventMessage) message;
+				String topicURI = eventMessage.getTopicURI();
+				String curie = ((WampSession) wampSession).compactUri(topicURI);
+				if (curie != topicURI) {
+					return eventMessage.toTextMessage(this.jsonFactory, curie);
+				}
+			}
+		}
+		return message.toTextMessage(this.jsonFactory);
+	}
+
 	@Override
 	public String resolveSessionId(Message<?> message) {
 		return (String) message.getHeaders()
@@ -166,6 +244,10 @@ public class WampSubProtocolHandler implements SubProtocolHandler {
 			session.setTextMessageSizeLimit(MINIMUM_WEBSOCKET_MESSAGE_SIZE);
 		}
 
+		// one WampSession per WebSocket session, attached to all its messages
+		session.getAttributes().put(WampSession.WAMP_SESSION_NAME,
+				new WampSession(session));
+
 		WelcomeMessage welcomeMessage = new WelcomeMessage(session.getId(),
 				SERVER_IDENTIFIER);
 		try {
@@ -185,7 +267,12 @@ public class WampSubProtocolHandler implements SubProtocolHandler {
 		 * that this is an unexpected session end and the client did not unsubscribe his
 		 * subscriptions.
 		 */
-		WampMessage message = UnsubscribeMessage.createCleanupMessage(session);
+		if (this.outboundQueues != null) {
+			this.outboundQueues.remove(session.getId());
+		}
+
+		WampMessage message = UnsubscribeMessage
+				.createCleanupMessage(WampSession.from(session));
 
 		try {
 			WampSessionContextHolder.setAttributesFromMessage(message);
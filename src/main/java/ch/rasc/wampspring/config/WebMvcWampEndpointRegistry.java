@@ -19,6 +19,7 @@ import java.util.ArrayList;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Executor;
 
 import org.springframework.scheduling.TaskScheduler;
 import org.springframework.util.Assert;
@@ -34,6 +35,8 @@ import org.springframework.web.util.UrlPathHelper;
 
 import com.fasterxml.jackson.core.JsonFactory;
 
+import ch.rasc.wampspring.message.TopicTable;
+
 /**
  * @author Rossen Stoyanchev
  * @author Artem Bilan
@@ -60,6 +63,18 @@ public class WebMvcWampEndpointRegistry implements WampEndpointRegistry {
 	public WebMvcWampEndpointRegistry(WebSocketHandler webSocketHandler,
 			WebSocketTransportRegistration transportRegistration,
 			TaskScheduler defaultSockJsTaskScheduler, JsonFactory jsonFactory) {
+		this(webSocketHandler, transportRegistration, defaultSockJsTaskScheduler,
+				jsonFactory, null);
+	}
+
+	/**
+	 * @param outboundQueueExecutor drains the outbound queues of the sessions. Required
+	 * if an outbound queue capacity is configured in the transportRegistration.
+	 */
+	public WebMvcWampEndpointRegistry(WebSocketHandler webSocketHandler,
+			WebSocketTransportRegistration transportRegistration,
+			TaskScheduler defaultSockJsTaskScheduler, JsonFactory jsonFactory,
+			Executor outboundQueueExecutor) {
 
 		Assert.notNull(webSocketHandler, "'webSocketHandler' is required ");
 		Assert.notNull(transportRegistration, "'transportRegistration' is required");
@@ -79,9 +94,24 @@ public class WebMvcWampEndpointRegistry implements WampEndpointRegistry {
 		}
 
 		this.wampSubProtocolHandler = new WampSubProtocolHandler(jsonFactory);
+		if (transportRegistration.getOutboundQueueCapacity() != null) {
+			Assert.notNull(outboundQueueExecutor, "'outboundQueueExecutor' is required");
+			this.wampSubProtocolHandler.enableOutboundQueues(
+					transportRegistration.getOutboundQueueCapacity(),
+					transportRegistration.getOutboundOverflowPolicy(),
+					outboundQueueExecutor);
+		}
 		this.sockJsScheduler = defaultSockJsTaskScheduler;
 	}
 
+	/**
+	 * Table that canonicalizes the topicURIs of the decoded messages. Should be the table
+	 * of the subscription registry.
+	 */
+	public void setTopicTable(TopicTable topicTable) {
+		this.wampSubProtocolHandler.setTopicTable(topicTable);
+	}
+
 	public void addHandshakeInterceptors(List<HandshakeInterceptor> interceptors) {
 		this.handshakeInterceptors = interceptors;
 	}
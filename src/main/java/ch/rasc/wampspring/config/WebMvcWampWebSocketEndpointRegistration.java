@@ -18,7 +18,10 @@ package ch.rasc.wampspring.config;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
 
+import org.springframework.http.server.ServerHttpRequest;
+import org.springframework.http.server.ServerHttpResponse;
 import org.springframework.scheduling.TaskScheduler;
 import org.springframework.util.Assert;
 import org.springframework.util.LinkedMultiValueMap;
@@ -56,6 +59,8 @@ public class WebMvcWampWebSocketEndpointRegistration
 
 	private WampSockJsServiceRegistration registration;
 
+	private boolean curieCompression = false;
+
 	public WebMvcWampWebSocketEndpointRegistration(String[] paths,
 			WebSocketHandler webSocketHandler, TaskScheduler sockJsTaskScheduler) {
 
@@ -93,6 +98,21 @@ public class WebMvcWampWebSocketEndpointRegistration
 		return this;
 	}
 
+	/**
+	 * Send the topicURIs of EVENT messages as CURIEs, if the client registered a
+	 * matching prefix with a PREFIX message. This reduces the size of the EVENT frames
+	 * with long topicURIs, but each frame has to be encoded for every receiver that
+	 * registered a prefix for the topic.
+	 * <p>
+	 * Must be called before {@link #withSockJS()}. The registration returned by
+	 * {@link WebMvcWampEndpointRegistry#addEndpoint(String...)} is an instance of this
+	 * class.
+	 */
+	public WebMvcWampWebSocketEndpointRegistration withCurieCompression() {
+		this.curieCompression = true;
+		return this;
+	}
+
 	@Override
 	public SockJsServiceRegistration withSockJS() {
 		this.registration = new WampSockJsServiceRegistration(this.sockJsTaskScheduler);
@@ -116,6 +136,9 @@ public class WebMvcWampWebSocketEndpointRegistration
 		List<HandshakeInterceptor> handshakeInterceptors = new ArrayList<>();
 		handshakeInterceptors.addAll(this.interceptors);
 		handshakeInterceptors.add(new OriginHandshakeInterceptor(this.allowedOrigins));
+		if (this.curieCompression) {
+			handshakeInterceptors.add(new CurieCompressionHandshakeInterceptor());
+		}
 		return handshakeInterceptors
 				.toArray(new HandshakeInterceptor[handshakeInterceptors.size()]);
 	}
@@ -152,6 +175,28 @@ public class WebMvcWampWebSocketEndpointRegistration
 		return mappings;
 	}
 
+	/**
+	 * Marks the WebSocket sessions of this endpoint for CURIE compression
+	 */
+	private static class CurieCompressionHandshakeInterceptor
+			implements HandshakeInterceptor {
+
+		@Override
+		public boolean beforeHandshake(ServerHttpRequest request,
+				ServerHttpResponse response, WebSocketHandler wsHandler,
+				Map<String, Object> attributes) {
+			attributes.put(WampSession.CURIE_COMPRESSION_NAME, Boolean.TRUE);
+			return true;
+		}
+
+		@Override
+		public void afterHandshake(ServerHttpRequest request,
+				ServerHttpResponse response, WebSocketHandler wsHandler,
+				Exception exception) {
+			// nothing to do
+		}
+	}
+
 	private static class WampSockJsServiceRegistration extends SockJsServiceRegistration {
 
 		public WampSockJsServiceRegistration(TaskScheduler defaultTaskScheduler) {
@@ -31,6 +31,10 @@ public class WebSocketTransportRegistration {
 
 	private Integer sendBufferSizeLimit;
 
+	private Integer outboundQueueCapacity;
+
+	private OutboundOverflowPolicy outboundOverflowPolicy = OutboundOverflowPolicy.DROP_OLDEST_EVENT;
+
 	private final List<WebSocketHandlerDecoratorFactory> decoratorFactories = new ArrayList<>(
 			2);
 
@@ -125,6 +129,53 @@ public class WebSocketTransportRegistration {
 		return this.sendBufferSizeLimit;
 	}
 
+	/**
+	 * Send the messages to a WebSocket session through a bounded queue. The queues of all
+	 * sessions are drained by the fixed pool of threads returned by
+	 * {@link DefaultWampConfiguration#clientOutboundQueueExecutor()}, so a slow client no
+	 * longer blocks a thread of the clientOutboundChannel and its backlog can't grow
+	 * without limit.
+	 *
+	 * <p>
+	 * By default there is no queue and messages are sent by the threads of the
+	 * clientOutboundChannel.
+	 *
+	 * @param outboundQueueCapacity the maximum number of messages queued per session
+	 * @see #setOutboundOverflowPolicy(OutboundOverflowPolicy)
+	 */
+	public WebSocketTransportRegistration setOutboundQueueCapacity(
+			int outboundQueueCapacity) {
+		this.outboundQueueCapacity = outboundQueueCapacity;
+		return this;
+	}
+
+	/**
+	 * Protected accessor for internal use.
+	 */
+	protected Integer getOutboundQueueCapacity() {
+		return this.outboundQueueCapacity;
+	}
+
+	/**
+	 * Configure what happens when the outbound queue of a session is full. CALLRESULT and
+	 * CALLERROR messages are never dropped.
+	 *
+	 * <p>
+	 * The default value is {@link OutboundOverflowPolicy#DROP_OLDEST_EVENT}.
+	 */
+	public WebSocketTransportRegistration setOutboundOverflowPolicy(
+			OutboundOverflowPolicy outboundOverflowPolicy) {
+		this.outboundOverflowPolicy = outboundOverflowPolicy;
+		return this;
+	}
+
+	/**
+	 * Protected accessor for internal use.
+	 */
+	protected OutboundOverflowPolicy getOutboundOverflowPolicy() {
+		return this.outboundOverflowPolicy;
+	}
+
 	/**
 	 * Configure one or more factories to decorate the handler used to process WebSocket
 	 * messages. This may be useful in some advanced use cases, for example to allow
@@ -16,13 +16,11 @@
 package ch.rasc.wampspring.message;
 
 import java.io.IOException;
-import java.io.StringWriter;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 
-import com.fasterxml.jackson.core.JsonFactory;
 import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.core.JsonToken;
@@ -41,8 +39,17 @@ public class CallMessage extends WampMessage {
 
 	private final String procURI;
 
+	/**
+	 * The arguments. Arguments that are JSON objects or arrays may be a
+	 * {@link DeferredJsonValue} that has not been decoded yet
+	 */
 	private final List<Object> arguments;
 
+	private volatile List<Object> decodedArguments;
+
+	/** {@link System#nanoTime()} when the message arrived, 0 if unknown */
+	private long receivedNanoTime;
+
 	public CallMessage(String callID, String procURI, Object... arguments) {
 		super(WampMessageType.CALL);
 		this.callID = callID;
@@ -53,6 +60,7 @@ public class CallMessage extends WampMessage {
 		else {
 			this.arguments = null;
 		}
+		this.decodedArguments = this.arguments;
 
 	}
 
@@ -61,6 +69,14 @@ public class CallMessage extends WampMessage {
 	}
 
 	public CallMessage(JsonParser jp, WampSession wampSession) throws IOException {
+		this(jp, wampSession, null);
+	}
+
+	/**
+	 * @param json the JSON text the parser reads from. If present arguments that are
+	 * JSON objects or arrays are only decoded when they are accessed.
+	 */
+	CallMessage(JsonParser jp, WampSession wampSession, String json) throws IOException {
 		super(WampMessageType.CALL);
 
 		if (jp.nextToken() != JsonToken.VALUE_STRING) {
@@ -73,9 +89,12 @@ public class CallMessage extends WampMessage {
 		}
 		this.procURI = replacePrefix(jp.getValueAsString(), wampSession);
 
-		List<Object> args = new ArrayList<>();
+		List<Object> args = new ArrayList<>(4);
+		boolean deferred = false;
 		while (jp.nextToken() != JsonToken.END_ARRAY) {
-			args.add(jp.readValueAs(Object.class));
+			Object argument = DeferredJsonValue.read(jp, json);
+			deferred = deferred || argument instanceof DeferredJsonValue;
+			args.add(argument);
 		}
 
 		if (!args.isEmpty()) {
@@ -84,6 +103,7 @@ public class CallMessage extends WampMessage {
 		else {
 			this.arguments = null;
 		}
+		this.decodedArguments = deferred ? null : this.arguments;
 	}
 
 	public String getCallID() {
@@ -95,32 +115,57 @@ public class CallMessage extends WampMessage {
 	}
 
 	public List<Object> getArguments() {
+		List<Object> decoded = this.decodedArguments;
+		if (decoded == null && this.arguments != null) {
+			List<Object> args = new ArrayList<>(this.arguments.size());
+			for (Object argument : this.arguments) {
+				args.add(DeferredJsonValue.decode(argument));
+			}
+			decoded = Collections.unmodifiableList(args);
+			this.decodedArguments = decoded;
+		}
+		return decoded;
+	}
+
+	/**
+	 * Returns the arguments without decoding them. Arguments that are JSON objects or
+	 * arrays are {@link DeferredJsonValue}s if the message was read from JSON, so they can
+	 * be read directly into the type of the handler method parameter.
+	 */
+	public List<Object> getRawArguments() {
 		return this.arguments;
 	}
 
+	/**
+	 * Returns the {@link System#nanoTime()} when the message arrived from the client or 0
+	 * if it is unknown
+	 */
+	public long getReceivedNanoTime() {
+		return this.receivedNanoTime;
+	}
+
+	public void setReceivedNanoTime(long receivedNanoTime) {
+		this.receivedNanoTime = receivedNanoTime;
+	}
+
 	@Override
 	public String getDestination() {
 		return this.procURI;
 	}
 
 	@Override
-	public String toJson(JsonFactory jsonFactory) throws IOException {
-		try (StringWriter sw = new StringWriter();
-				JsonGenerator jg = jsonFactory.createGenerator(sw)) {
-			jg.writeStartArray();
-			jg.writeNumber(getTypeId());
-			jg.writeString(this.callID);
-			jg.writeString(this.procURI);
-			if (this.arguments != null) {
-				for (Object argument : this.arguments) {
-					jg.writeObject(argument);
-				}
+	protected void writeJson(JsonGenerator jg) throws IOException {
+		jg.writeStartArray();
+		jg.writeNumber(getTypeId());
+		jg.writeString(this.callID);
+		jg.writeString(this.procURI);
+		if (this.arguments != null) {
+			for (Object argument : getArguments()) {
+				jg.writeObject(argument);
 			}
-
-			jg.writeEndArray();
-			jg.close();
-			return sw.toString();
 		}
+
+		jg.writeEndArray();
 	}
 
 	@Override
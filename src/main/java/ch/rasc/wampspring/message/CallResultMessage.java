@@ -16,9 +16,7 @@
 package ch.rasc.wampspring.message;
 
 import java.io.IOException;
-import java.io.StringWriter;
 
-import com.fasterxml.jackson.core.JsonFactory;
 import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.core.JsonToken;
@@ -66,17 +64,12 @@ public class CallResultMessage extends WampMessage {
 	}
 
 	@Override
-	public String toJson(JsonFactory jsonFactory) throws IOException {
-		try (StringWriter sw = new StringWriter();
-				JsonGenerator jg = jsonFactory.createGenerator(sw)) {
-			jg.writeStartArray();
-			jg.writeNumber(getTypeId());
-			jg.writeString(this.callID);
-			jg.writeObject(this.result);
-			jg.writeEndArray();
-			jg.close();
-			return sw.toString();
-		}
+	protected void writeJson(JsonGenerator jg) throws IOException {
+		jg.writeStartArray();
+		jg.writeNumber(getTypeId());
+		jg.writeString(this.callID);
+		jg.writeObject(this.result);
+		jg.writeEndArray();
 	}
 
 	@Override
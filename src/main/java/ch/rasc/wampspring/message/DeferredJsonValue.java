@@ -0,0 +1,186 @@
+/**
+ * Copyright 2014-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ch.rasc.wampspring.message;
+
+import java.io.IOException;
+import java.io.StringReader;
+
+import org.springframework.messaging.converter.MessageConversionException;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.ObjectCodec;
+import com.fasterxml.jackson.core.base.ParserBase;
+import com.fasterxml.jackson.databind.ObjectReader;
+
+/**
+ * A JSON object or array of an inbound message that is kept as JSON text while the
+ * message is parsed. The parser only skips over the value and the generic Map/List
+ * representation is created when {@link #getValue()} is called the first time.
+ * {@link #readValue(ObjectReader)} reads the value directly into the type of the reader.
+ */
+public final class DeferredJsonValue {
+
+	/** the complete inbound frame, the value is not copied out of it */
+	private final String source;
+
+	private final int start;
+
+	private final int end;
+
+	private final ObjectCodec codec;
+
+	private Object value;
+
+	private boolean decoded = false;
+
+	private DeferredJsonValue(String source, int start, int end, ObjectCodec codec) {
+		this.source = source;
+		this.start = start;
+		this.end = end;
+		this.codec = codec;
+	}
+
+	/**
+	 * Reads the value at the current token of the parser. Objects and arrays are returned
+	 * as a {@link DeferredJsonValue} if the source of the parser is known, all other
+	 * values are read immediately.
+	 *
+	 * @param jp parser positioned at the first token of the value
+	 * @param source the JSON text the parser reads from, may be null
+	 */
+	static Object read(JsonParser jp, String source) throws IOException {
+		JsonToken token = jp.getCurrentToken();
+		if (source != null && jp.getCodec() != null && (token == JsonToken.START_OBJECT
+				|| token == JsonToken.START_ARRAY)) {
+			int start = tokenCharOffset(jp, source);
+			jp.skipChildren();
+			// the value ends with the closing bracket, a single character
+			int end = tokenCharOffset(jp, source) + 1;
+			if (start >= 0 && end <= source.length() && start < end) {
+				return new DeferredJsonValue(source, start, end, jp.getCodec());
+			}
+			throw new IOException("Unexpected location of JSON value");
+		}
+		return jp.readValueAs(Object.class);
+	}
+
+	/**
+	 * Returns the decoded value if the argument is a {@link DeferredJsonValue}, otherwise
+	 * the argument itself.
+	 */
+	static Object decode(Object value) {
+		if (value instanceof DeferredJsonValue) {
+			return ((DeferredJsonValue) value).getValue();
+		}
+		return value;
+	}
+
+	/**
+	 * Writes the value into the generator. A {@link DeferredJsonValue} is copied verbatim
+	 * from the inbound frame and a {@link RawJson} as it is, without decoding and encoding
+	 * them again.
+	 */
+	static void write(JsonGenerator jg, Object value) throws IOException {
+		if (value instanceof DeferredJsonValue) {
+			DeferredJsonValue deferred = (DeferredJsonValue) value;
+			jg.writeRawValue(deferred.source, deferred.start,
+					deferred.end - deferred.start);
+		}
+		else if (value instanceof RawJson) {
+			jg.writeRawValue(((RawJson) value).getJson());
+		}
+		else {
+			jg.writeObject(value);
+		}
+	}
+
+	/**
+	 * Returns the offset of the current bracket token in the source. The raw offset of
+	 * {@link ParserBase} does not allocate a JsonLocation but, depending on the parser,
+	 * points to or just behind the token. Both positions are checked against the source.
+	 */
+	private static int tokenCharOffset(JsonParser jp, String source) {
+		char bracket = 0;
+		JsonToken token = jp.getCurrentToken();
+		if (token == JsonToken.START_OBJECT) {
+			bracket = '{';
+		}
+		else if (token == JsonToken.END_OBJECT) {
+			bracket = '}';
+		}
+		else if (token == JsonToken.START_ARRAY) {
+			bracket = '[';
+		}
+		else if (token == JsonToken.END_ARRAY) {
+			bracket = ']';
+		}
+
+		if (jp instanceof ParserBase) {
+			int offset = (int) ((ParserBase) jp).getTokenCharacterOffset();
+			if (offset >= 0 && offset < source.length()
+					&& source.charAt(offset) == bracket) {
+				return offset;
+			}
+			if (offset >= 1 && offset <= source.length()
+					&& source.charAt(offset - 1) == bracket) {
+				return offset - 1;
+			}
+		}
+		return (int) jp.getTokenLocation().getCharOffset();
+	}
+
+	public String getJson() {
+		return this.source.substring(this.start, this.end);
+	}
+
+	/**
+	 * Reads the JSON text into the type of the reader without creating the generic
+	 * Map/List representation
+	 */
+	public Object readValue(ObjectReader objectReader) throws IOException {
+		StringReader reader = new StringReader(this.source);
+		reader.skip(this.start);
+		try (JsonParser jp = objectReader.getFactory().createParser(reader)) {
+			return objectReader.readValue(jp);
+		}
+	}
+
+	/**
+	 * Returns the generic Map/List representation of the value. It is created on the
+	 * first call.
+	 */
+	public synchronized Object getValue() {
+		if (!this.decoded) {
+			try (JsonParser jp = this.codec.getFactory().createParser(getJson())) {
+				jp.nextToken();
+				this.value = jp.readValueAs(Object.class);
+			}
+			catch (IOException e) {
+				throw new MessageConversionException("Failed to decode " + getJson(), e);
+			}
+			this.decoded = true;
+		}
+		return this.value;
+	}
+
+	@Override
+	public String toString() {
+		return getJson();
+	}
+
+}
@@ -16,9 +16,10 @@
 package ch.rasc.wampspring.message;
 
 import java.io.IOException;
-import java.io.StringWriter;
 import java.util.Set;
 
+import org.springframework.web.socket.TextMessage;
+
 import com.fasterxml.jackson.core.JsonFactory;
 import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.core.JsonParser;
@@ -38,16 +39,28 @@ import ch.rasc.wampspring.config.WampSession;
  */
 public class EventMessage extends PubSubMessage {
 
+	/**
+	 * The event, or the {@link DeferredJsonValue} of the published event. A deferred
+	 * event is only decoded if {@link #getEvent()} is called and is written verbatim into
+	 * the EVENT frame
+	 */
 	private final Object event;
 
+	/**
+	 * Shared between an event and all its copies. A broadcast event is encoded once and
+	 * the resulting frame is sent to every receiver
+	 */
+	private final EncodedFrame encodedFrame;
+
 	private Set<String> excludeWebSocketSessionIds;
 
 	private Set<String> eligibleWebSocketSessionIds;
 
 	public EventMessage(EventMessage originEventMessage,
 			String receiverWebSocketSessionId) {
-		super(WampMessageType.EVENT, originEventMessage.getTopicURI());
-		this.event = originEventMessage.getEvent();
+		super(WampMessageType.EVENT, originEventMessage);
+		this.event = originEventMessage.event;
+		this.encodedFrame = originEventMessage.encodedFrame;
 
 		setWebSocketSessionId(receiverWebSocketSessionId);
 		setPrincipal(originEventMessage.getPrincipal());
@@ -56,8 +69,9 @@ public class EventMessage extends PubSubMessage {
 
 	public EventMessage(PublishMessage publishMessage,
 			String receiverWebSocketSessionId) {
-		super(WampMessageType.EVENT, publishMessage.getTopicURI());
-		this.event = publishMessage.getEvent();
+		super(WampMessageType.EVENT, publishMessage);
+		this.event = publishMessage.getRawEvent();
+		this.encodedFrame = new EncodedFrame();
 
 		setWebSocketSessionId(receiverWebSocketSessionId);
 		setPrincipal(publishMessage.getPrincipal());
@@ -67,6 +81,7 @@ public class EventMessage extends PubSubMessage {
 	public EventMessage(String topicURI, Object event) {
 		super(WampMessageType.EVENT, topicURI);
 		this.event = event;
+		this.encodedFrame = new EncodedFrame();
 	}
 
 	public EventMessage(JsonParser jp) throws IOException {
@@ -83,10 +98,11 @@ public class EventMessage extends PubSubMessage {
 
 		jp.nextToken();
 		this.event = jp.readValueAs(Object.class);
+		this.encodedFrame = new EncodedFrame();
 	}
 
 	public Object getEvent() {
-		return this.event;
+		return DeferredJsonValue.decode(this.event);
 	}
 
 	public Set<String> getExcludeWebSocketSessionIds() {
@@ -106,18 +122,38 @@ public class EventMessage extends PubSubMessage {
 	}
 
 	@Override
-	public String toJson(JsonFactory jsonFactory) throws IOException {
-		try (StringWriter sw = new StringWriter();
-				JsonGenerator jg = jsonFactory.createGenerator(sw)) {
-			jg.writeStartArray();
-			jg.writeNumber(getTypeId());
+	protected void writeJson(JsonGenerator jg) throws IOException {
+		jg.writeStartArray();
+		jg.writeNumber(getTypeId());
+		Topic topic = getTopic();
+		if (topic != null) {
+			// already escaped
+			jg.writeString(topic.getSerializedUri());
+		}
+		else {
 			jg.writeString(getTopicURI());
-			jg.writeObject(this.event);
-			jg.writeEndArray();
-			jg.close();
-
-			return sw.toString();
 		}
+		DeferredJsonValue.write(jg, this.event);
+		jg.writeEndArray();
+	}
+
+	/**
+	 * Returns the encoded frame of this event. The frame is created on the first call and
+	 * reused by this message and all copies created with
+	 * {@link #EventMessage(EventMessage, String)}.
+	 */
+	@Override
+	public TextMessage toTextMessage(JsonFactory jsonFactory) throws IOException {
+		return this.encodedFrame.get(this, jsonFactory);
+	}
+
+	/**
+	 * Encodes this event with another topicURI, e.g. the CURIE of the topicURI for one
+	 * receiver. The frame is not shared with the copies of this event.
+	 */
+	public TextMessage toTextMessage(JsonFactory jsonFactory, String topicURI)
+			throws IOException {
+		return new TextMessage(new EventMessage(topicURI, this.event).toJson(jsonFactory));
 	}
 
 	@Override
@@ -125,4 +161,22 @@ public class EventMessage extends PubSubMessage {
 		return "EventMessage [topicURI=" + getTopicURI() + ", event=" + this.event + "]";
 	}
 
+	private static class EncodedFrame {
+
+		private volatile Object[] factoryAndFrame;
+
+		TextMessage get(EventMessage eventMessage, JsonFactory jsonFactory)
+				throws IOException {
+			Object[] cached = this.factoryAndFrame;
+			if (cached != null && cached[0] == jsonFactory) {
+				return (TextMessage) cached[1];
+			}
+
+			// concurrent callers may encode the same frame, the last one wins
+			TextMessage textMessage = new TextMessage(eventMessage.toJson(jsonFactory));
+			this.factoryAndFrame = new Object[] { jsonFactory, textMessage };
+			return textMessage;
+		}
+	}
+
 }
@@ -0,0 +1,141 @@
+/**
+ * Copyright 2014-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ch.rasc.wampspring.message;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.ref.SoftReference;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+/**
+ * Encodes {@link WampMessage}s into a char buffer that is reused per thread. The
+ * StringWriter and the synchronized StringBuffer behind it are avoided, only the
+ * generator and the resulting String are allocated per message.
+ *
+ * <p>
+ * The ThreadLocal only holds a softly referenced char array. The worker threads of the
+ * container therefore never reference a class of the application, and a redeployed
+ * application can be unloaded. A message that is encoded while another message of the
+ * same thread is being encoded, e.g. by a serializer, gets its own buffer.
+ */
+final class JsonFrameWriter {
+
+	private static final int INITIAL_CAPACITY = 256;
+
+	/**
+	 * Buffers that grew larger than this while encoding a big message are not kept
+	 */
+	private static final int MAX_RETAINED_CAPACITY = 16 * 1024;
+
+	private static final ThreadLocal<SoftReference<char[]>> buffers = new ThreadLocal<>();
+
+	private JsonFrameWriter() {
+		// static methods only
+	}
+
+	static String write(WampMessage message, JsonFactory jsonFactory)
+			throws IOException {
+		FrameBuffer buffer = new FrameBuffer(takeBuffer());
+		try {
+			try (JsonGenerator jg = jsonFactory.createGenerator(buffer)) {
+				message.writeJson(jg);
+			}
+			return buffer.toString();
+		}
+		finally {
+			returnBuffer(buffer.chars);
+		}
+	}
+
+	private static char[] takeBuffer() {
+		SoftReference<char[]> ref = buffers.get();
+		char[] chars = ref != null ? ref.get() : null;
+		if (chars == null) {
+			return new char[INITIAL_CAPACITY];
+		}
+		// a nested call while this buffer is in use allocates a new one
+		buffers.remove();
+		return chars;
+	}
+
+	private static void returnBuffer(char[] chars) {
+		if (chars.length <= MAX_RETAINED_CAPACITY) {
+			buffers.set(new SoftReference<>(chars));
+		}
+	}
+
+	/**
+	 * Unsynchronized replacement of StringWriter that writes into a caller supplied char
+	 * array and grows it when needed.
+	 */
+	private static class FrameBuffer extends Writer {
+
+		private char[] chars;
+
+		private int count = 0;
+
+		FrameBuffer(char[] chars) {
+			this.chars = chars;
+		}
+
+		private void ensureCapacity(int additional) {
+			int required = this.count + additional;
+			if (required > this.chars.length) {
+				char[] newChars = new char[Math.max(required, this.chars.length * 2)];
+				System.arraycopy(this.chars, 0, newChars, 0, this.count);
+				this.chars = newChars;
+			}
+		}
+
+		@Override
+		public void write(int c) {
+			ensureCapacity(1);
+			this.chars[this.count++] = (char) c;
+		}
+
+		@Override
+		public void write(char[] cbuf, int off, int len) {
+			ensureCapacity(len);
+			System.arraycopy(cbuf, off, this.chars, this.count, len);
+			this.count += len;
+		}
+
+		@Override
+		public void write(String str, int off, int len) {
+			ensureCapacity(len);
+			str.getChars(off, off + len, this.chars, this.count);
+			this.count += len;
+		}
+
+		@Override
+		public void flush() {
+			// nothing to do
+		}
+
+		@Override
+		public void close() {
+			// nothing to do
+		}
+
+		@Override
+		public String toString() {
+			return new String(this.chars, 0, this.count);
+		}
+	}
+
+}
@@ -28,13 +28,25 @@ public abstract class PubSubMessage extends WampMessage {
 
 	private String topicURI;
 
+	/** The topic of the topicURI if it has subscribers, see {@link TopicTable} */
+	private Topic topic;
+
 	protected PubSubMessage(WampMessageType type) {
 		super(type);
 	}
 
 	public PubSubMessage(WampMessageType type, String topicURI) {
 		super(type);
-		this.topicURI = topicURI;
+		setTopicURI(topicURI);
+	}
+
+	/**
+	 * Copies the topic of the origin message without looking it up again
+	 */
+	PubSubMessage(WampMessageType type, PubSubMessage originMessage) {
+		super(type);
+		this.topicURI = originMessage.topicURI;
+		this.topic = originMessage.topic;
 	}
 
 	public String getTopicURI() {
@@ -42,9 +54,22 @@ public abstract class PubSubMessage extends WampMessage {
 	}
 
 	protected void setTopicURI(String topicURI) {
+		this.topic = null;
 		this.topicURI = topicURI;
 	}
 
+	/**
+	 * Replaces the topicURI with the canonical String instance of the topic
+	 */
+	void setTopic(Topic topic) {
+		this.topic = topic;
+		this.topicURI = topic.getUri();
+	}
+
+	Topic getTopic() {
+		return this.topic;
+	}
+
 	@Override
 	public String getDestination() {
 		return this.topicURI;
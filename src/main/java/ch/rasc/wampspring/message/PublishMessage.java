@@ -16,10 +16,8 @@
 package ch.rasc.wampspring.message;
 
 import java.io.IOException;
-import java.io.StringWriter;
 import java.util.Set;
 
-import com.fasterxml.jackson.core.JsonFactory;
 import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.core.JsonToken;
@@ -37,6 +35,10 @@ import ch.rasc.wampspring.config.WampSession;
  * @see <a href="http://wamp.ws/spec/wamp1/#publish_message">WAMP specification</a>
  */
 public class PublishMessage extends PubSubMessage {
+	/**
+	 * The event, or a {@link DeferredJsonValue} if the event is a JSON object or array
+	 * that has not been decoded yet
+	 */
 	private final Object event;
 
 	private final Boolean excludeMe;
@@ -76,6 +78,15 @@ public class PublishMessage extends PubSubMessage {
 	}
 
 	public PublishMessage(JsonParser jp, WampSession wampSession) throws IOException {
+		this(jp, wampSession, null);
+	}
+
+	/**
+	 * @param json the JSON text the parser reads from. If present an event that is a
+	 * JSON object or array is only decoded when it is accessed.
+	 */
+	PublishMessage(JsonParser jp, WampSession wampSession, String json)
+			throws IOException {
 		super(WampMessageType.PUBLISH);
 
 		if (jp.nextToken() != JsonToken.VALUE_STRING) {
@@ -84,7 +95,7 @@ public class PublishMessage extends PubSubMessage {
 		setTopicURI(replacePrefix(jp.getValueAsString(), wampSession));
 
 		jp.nextToken();
-		this.event = jp.readValueAs(Object.class);
+		this.event = DeferredJsonValue.read(jp, json);
 
 		if (jp.nextToken() != JsonToken.END_ARRAY) {
 			if (jp.getCurrentToken() == JsonToken.VALUE_TRUE
@@ -130,12 +141,19 @@ public class PublishMessage extends PubSubMessage {
 	}
 
 	public Object getEvent() {
+		return DeferredJsonValue.decode(this.event);
+	}
+
+	/**
+	 * Returns the event without decoding it
+	 */
+	Object getRawEvent() {
 		return this.event;
 	}
 
 	@Override
 	public Object getPayload() {
-		return this.event != null ? this.event : EMPTY_OBJECT;
+		return this.event != null ? getEvent() : EMPTY_OBJECT;
 	}
 
 	public Boolean getExcludeMe() {
@@ -151,28 +169,23 @@ public class PublishMessage extends PubSubMessage {
 	}
 
 	@Override
-	public String toJson(JsonFactory jsonFactory) throws IOException {
-		try (StringWriter sw = new StringWriter();
-				JsonGenerator jg = jsonFactory.createGenerator(sw)) {
-			jg.writeStartArray();
-			jg.writeNumber(getTypeId());
-			jg.writeString(getTopicURI());
-
-			jg.writeObject(this.event);
-			if (this.excludeMe != null && this.excludeMe) {
-				jg.writeBoolean(true);
-			}
-			else if (this.exclude != null) {
-				jg.writeObject(this.exclude);
-				if (this.eligible != null) {
-					jg.writeObject(this.eligible);
-				}
+	protected void writeJson(JsonGenerator jg) throws IOException {
+		jg.writeStartArray();
+		jg.writeNumber(getTypeId());
+		jg.writeString(getTopicURI());
+
+		DeferredJsonValue.write(jg, this.event);
+		if (this.excludeMe != null && this.excludeMe) {
+			jg.writeBoolean(true);
+		}
+		else if (this.exclude != null) {
+			jg.writeObject(this.exclude);
+			if (this.eligible != null) {
+				jg.writeObject(this.eligible);
 			}
-
-			jg.writeEndArray();
-			jg.close();
-			return sw.toString();
 		}
+
+		jg.writeEndArray();
 	}
 
 	@Override
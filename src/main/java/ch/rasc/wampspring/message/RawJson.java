@@ -0,0 +1,105 @@
+/**
+ * Copyright 2014-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ch.rasc.wampspring.message;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+
+import org.springframework.util.Assert;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonSerializable;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.jsontype.TypeSerializer;
+
+/**
+ * An event payload that is already encoded as JSON. When an {@link EventMessage} with a
+ * RawJson event is sent, the JSON text is copied verbatim into the EVENT frame without
+ * parsing or encoding it. A RawJson value can be passed as the event to every method of
+ * {@link ch.rasc.wampspring.EventMessenger} and
+ * {@link ch.rasc.wampspring.user.UserEventMessenger}.
+ *
+ * <p>
+ * The JSON text is not validated. It must be exactly one well formed JSON value,
+ * otherwise the clients receive a broken frame.
+ *
+ * <pre class="code">
+ * String cachedJson = cache.get(&quot;quotes&quot;);
+ * eventMessenger.sendToAll(&quot;quotes&quot;, new RawJson(cachedJson));
+ * </pre>
+ */
+public final class RawJson implements JsonSerializable {
+
+	private static final Charset UTF8_CHARSET = Charset.forName("UTF-8");
+
+	private final String json;
+
+	/**
+	 * @param json a single JSON value, e.g. an object or an array
+	 */
+	public RawJson(String json) {
+		Assert.hasText(json, "'json' must not be empty");
+		this.json = json;
+	}
+
+	/**
+	 * @param utf8Json a single JSON value encoded in UTF-8
+	 */
+	public RawJson(byte[] utf8Json) {
+		this(new String(utf8Json, UTF8_CHARSET));
+	}
+
+	public String getJson() {
+		return this.json;
+	}
+
+	/**
+	 * Writes the JSON text when the RawJson is part of a larger object
+	 */
+	@Override
+	public void serialize(JsonGenerator gen, SerializerProvider serializers)
+			throws IOException {
+		gen.writeRawValue(this.json);
+	}
+
+	@Override
+	public void serializeWithType(JsonGenerator gen, SerializerProvider serializers,
+			TypeSerializer typeSer) throws IOException {
+		serialize(gen, serializers);
+	}
+
+	@Override
+	public int hashCode() {
+		return this.json.hashCode();
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj) {
+			return true;
+		}
+		if (obj == null || getClass() != obj.getClass()) {
+			return false;
+		}
+		return this.json.equals(((RawJson) obj).json);
+	}
+
+	@Override
+	public String toString() {
+		return this.json;
+	}
+
+}
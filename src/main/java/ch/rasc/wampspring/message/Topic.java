@@ -0,0 +1,79 @@
+/**
+ * Copyright 2014-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ch.rasc.wampspring.message;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.fasterxml.jackson.core.SerializableString;
+import com.fasterxml.jackson.core.io.SerializedString;
+
+/**
+ * Canonical handle of a subscribed topic URI in the {@link TopicTable}. All messages
+ * with this topic share the String instance of {@link #getUri()}, so its hash code is
+ * computed once and comparisons succeed by identity. The URI is also kept as an escaped
+ * JSON string, which the EVENT messages write without escaping it again.
+ */
+public final class Topic {
+
+	private final String uri;
+
+	private final SerializedString serializedUri;
+
+	/** Number of subscriptions to this topic. 0 after the topic is evicted */
+	private final AtomicInteger subscriptions = new AtomicInteger(1);
+
+	Topic(String uri) {
+		this.uri = uri;
+		this.serializedUri = new SerializedString(uri);
+	}
+
+	public String getUri() {
+		return this.uri;
+	}
+
+	SerializableString getSerializedUri() {
+		return this.serializedUri;
+	}
+
+	/**
+	 * Increments the number of subscriptions. Returns false if the topic has already been
+	 * evicted.
+	 */
+	boolean retain() {
+		while (true) {
+			int current = this.subscriptions.get();
+			if (current <= 0) {
+				return false;
+			}
+			if (this.subscriptions.compareAndSet(current, current + 1)) {
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * Decrements the number of subscriptions. Returns true if this was the last one.
+	 */
+	boolean release() {
+		return this.subscriptions.decrementAndGet() == 0;
+	}
+
+	@Override
+	public String toString() {
+		return "Topic [uri=" + this.uri + "]";
+	}
+
+}
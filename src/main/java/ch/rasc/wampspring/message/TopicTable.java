@@ -0,0 +1,111 @@
+/**
+ * Copyright 2014-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ch.rasc.wampspring.message;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Table of the subscribed topic URIs of a broker. The subscription registry acquires a
+ * topic for every subscription and releases it when the subscription ends. A topic is
+ * evicted when it loses its last subscription.
+ * <p>
+ * A message is canonicalized once after it was decoded with
+ * {@link #canonicalize(PubSubMessage)}. The message then uses the String of the
+ * {@link Topic}, so the registry, the destination caches and the EVENT encoder hash and
+ * compare the same String instance. URIs of topics without a subscription are not added
+ * to the table.
+ *
+ * @see ch.rasc.wampspring.config.DefaultWampConfiguration#topicTable()
+ */
+public class TopicTable {
+
+	private final ConcurrentMap<String, Topic> topics = new ConcurrentHashMap<>();
+
+	/**
+	 * Returns the topic of the uri or null if nobody subscribed to it
+	 */
+	public Topic get(String uri) {
+		return this.topics.get(uri);
+	}
+
+	/**
+	 * Returns the canonical String instance of the uri if somebody subscribed to it,
+	 * otherwise the uri itself
+	 */
+	public String canonicalize(String uri) {
+		if (uri == null) {
+			return null;
+		}
+		Topic topic = this.topics.get(uri);
+		return topic != null ? topic.getUri() : uri;
+	}
+
+	/**
+	 * Replaces the topicURI of the message with the canonical String instance if somebody
+	 * subscribed to it. Messages created from this message keep the topic.
+	 */
+	public void canonicalize(PubSubMessage message) {
+		String topicURI = message.getTopicURI();
+		if (topicURI != null) {
+			Topic topic = this.topics.get(topicURI);
+			if (topic != null) {
+				message.setTopic(topic);
+			}
+		}
+	}
+
+	/**
+	 * Registers a subscription to the uri and returns its topic
+	 */
+	public Topic acquire(String uri) {
+		while (true) {
+			Topic topic = this.topics.get(uri);
+			if (topic == null) {
+				topic = new Topic(uri);
+				Topic existingTopic = this.topics.putIfAbsent(uri, topic);
+				if (existingTopic == null) {
+					return topic;
+				}
+				topic = existingTopic;
+			}
+			if (topic.retain()) {
+				return topic;
+			}
+			// evicted by a concurrent release
+			this.topics.remove(uri, topic);
+		}
+	}
+
+	/**
+	 * Removes a subscription to the uri. The topic is evicted when this was its last
+	 * subscription.
+	 */
+	public void release(String uri) {
+		Topic topic = this.topics.get(uri);
+		if (topic != null && topic.release()) {
+			this.topics.remove(uri, topic);
+		}
+	}
+
+	/**
+	 * Returns the number of topics with at least one subscription
+	 */
+	public int size() {
+		return this.topics.size();
+	}
+
+}
@@ -16,11 +16,9 @@
 package ch.rasc.wampspring.message;
 
 import java.io.IOException;
-import java.io.StringWriter;
 
 import org.springframework.web.socket.WebSocketSession;
 
-import com.fasterxml.jackson.core.JsonFactory;
 import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.core.JsonToken;
@@ -59,16 +57,28 @@ public class UnsubscribeMessage extends PubSubMessage {
 	/**
 	 * Creates an internal unsubscribe message. The system creates this message when the
 	 * WebSocket session ends and sends it to the subscribed message handlers for cleaning
-	 * up
+	 * up. The message is attached to the {@link WampSession} of the session, see
+	 * {@link WampSession#from(WebSocketSession)}.
 	 *
 	 * @param sessionId the WebSocket session id
 	 **/
 	public static UnsubscribeMessage createCleanupMessage(WebSocketSession session) {
+		return createCleanupMessage(WampSession.from(session));
+	}
+
+	/**
+	 * Creates an internal unsubscribe message for the WebSocket session of the given
+	 * {@link WampSession}
+	 *
+	 * @see #createCleanupMessage(WebSocketSession)
+	 */
+	public static UnsubscribeMessage createCleanupMessage(WampSession wampSession) {
 		UnsubscribeMessage msg = new UnsubscribeMessage("**");
 
+		WebSocketSession session = wampSession.getWebSocketSession();
 		msg.setWebSocketSessionId(session.getId());
 		msg.setPrincipal(session.getPrincipal());
-		msg.setWampSession(new WampSession(session));
+		msg.setWampSession(wampSession);
 
 		msg.cleanup = true;
 
@@ -80,16 +90,11 @@ public class UnsubscribeMessage extends PubSubMessage {
 	}
 
 	@Override
-	public String toJson(JsonFactory jsonFactory) throws IOException {
-		try (StringWriter sw = new StringWriter();
-				JsonGenerator jg = jsonFactory.createGenerator(sw)) {
-			jg.writeStartArray();
-			jg.writeNumber(getTypeId());
-			jg.writeString(getTopicURI());
-			jg.writeEndArray();
-			jg.close();
-			return sw.toString();
-		}
+	protected void writeJson(JsonGenerator jg) throws IOException {
+		jg.writeStartArray();
+		jg.writeNumber(getTypeId());
+		jg.writeString(getTopicURI());
+		jg.writeEndArray();
 	}
 
 	@Override
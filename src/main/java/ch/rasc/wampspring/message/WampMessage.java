@@ -25,11 +25,14 @@ import java.util.Map;
 import org.springframework.messaging.Message;
 import org.springframework.messaging.MessageHeaders;
 import org.springframework.messaging.handler.annotation.support.DestinationVariableMethodArgumentResolver;
+import org.springframework.web.socket.TextMessage;
 import org.springframework.web.socket.WebSocketSession;
 
 import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.ObjectCodec;
 
 import ch.rasc.wampspring.config.WampSession;
 
@@ -37,6 +40,19 @@ public abstract class WampMessage implements Message<Object> {
 
 	protected final static Object EMPTY_OBJECT = new Object();
 
+	private static final ClassValue<Boolean> overridesToJson = new ClassValue<Boolean>() {
+		@Override
+		protected Boolean computeValue(Class<?> type) {
+			try {
+				return type.getMethod("toJson", JsonFactory.class)
+						.getDeclaringClass() != WampMessage.class;
+			}
+			catch (NoSuchMethodException e) {
+				return Boolean.FALSE;
+			}
+		}
+	};
+
 	private final MutableMessageHeaders messageHeaders = new MutableMessageHeaders();
 
 	WampMessage(WampMessageType type) {
@@ -107,13 +123,29 @@ public abstract class WampMessage implements Message<Object> {
 		return this.messageHeaders;
 	}
 
+	/**
+	 * Decodes a message of the given WebSocket session. The message is attached to the
+	 * {@link WampSession} of the session, see {@link WampSession#from(WebSocketSession)}.
+	 */
 	public static <T extends WampMessage> T fromJson(WebSocketSession session,
 			JsonFactory jsonFactory, String json) throws IOException {
+		return fromJson(WampSession.from(session), jsonFactory, json);
+	}
 
-		WampSession wampSession = new WampSession(session);
+	/**
+	 * Decodes a message of the WebSocket session of the given {@link WampSession}. The
+	 * WampSession is attached to the message as it is.
+	 */
+	public static <T extends WampMessage> T fromJson(WampSession wampSession,
+			JsonFactory jsonFactory, String json) throws IOException {
 
+		WebSocketSession session = wampSession.getWebSocketSession();
 		T newWampMessage = fromJson(jsonFactory, json, wampSession);
 
+		if (newWampMessage instanceof CallMessage) {
+			((CallMessage) newWampMessage).setReceivedNanoTime(System.nanoTime());
+		}
+
 		newWampMessage.setWebSocketSessionId(session.getId());
 		newWampMessage.setPrincipal(session.getPrincipal());
 		newWampMessage.setWampSession(wampSession);
@@ -121,7 +153,37 @@ public abstract class WampMessage implements Message<Object> {
 		return newWampMessage;
 	}
 
-	public abstract String toJson(JsonFactory jsonFactory) throws IOException;
+	/**
+	 * Encodes this message as JSON. The output buffer is reused per thread, see
+	 * {@link JsonFrameWriter}.
+	 */
+	public String toJson(JsonFactory jsonFactory) throws IOException {
+		return JsonFrameWriter.write(this, jsonFactory);
+	}
+
+	/**
+	 * Writes this message as one JSON array into the generator. Used by
+	 * {@link #toJson(JsonFactory)}. Subclasses either override this method or
+	 * {@link #toJson(JsonFactory)} itself. For the latter the default implementation
+	 * writes the output of {@link #toJson(JsonFactory)} as raw value.
+	 */
+	protected void writeJson(JsonGenerator jg) throws IOException {
+		if (!overridesToJson.get(getClass()).booleanValue()) {
+			throw new UnsupportedOperationException(
+					getClass().getName() + " does not override writeJson or toJson");
+		}
+		ObjectCodec codec = jg.getCodec();
+		JsonFactory jsonFactory = codec != null ? codec.getFactory()
+				: new JsonFactory();
+		jg.writeRawValue(toJson(jsonFactory));
+	}
+
+	/**
+	 * Encodes this message into the WebSocket frame that is sent to the client.
+	 */
+	public TextMessage toTextMessage(JsonFactory jsonFactory) throws IOException {
+		return new TextMessage(toJson(jsonFactory));
+	}
 
 	public static <T extends WampMessage> T fromJson(JsonFactory jsonFactory, String json)
 			throws IOException {
@@ -148,7 +210,7 @@ public abstract class WampMessage implements Message<Object> {
 			case PREFIX:
 				return (T) new PrefixMessage(jp);
 			case CALL:
-				return (T) new CallMessage(jp, wampSession);
+				return (T) new CallMessage(jp, wampSession, json);
 			case CALLRESULT:
 				return (T) new CallResultMessage(jp);
 			case CALLERROR:
@@ -158,7 +220,7 @@ public abstract class WampMessage implements Message<Object> {
 			case UNSUBSCRIBE:
 				return (T) new UnsubscribeMessage(jp, wampSession);
 			case PUBLISH:
-				return (T) new PublishMessage(jp, wampSession);
+				return (T) new PublishMessage(jp, wampSession, json);
 			case EVENT:
 				return (T) new EventMessage(jp, wampSession);
 			default:
@@ -182,14 +244,8 @@ public abstract class WampMessage implements Message<Object> {
 	}
 
 	protected String replacePrefix(String uri, WampSession wampSession) {
-		if (uri != null && wampSession != null && wampSession.hasPrefixes()) {
-			String[] curie = uri.split(":");
-			if (curie.length == 2) {
-				String prefix = wampSession.getPrefix(curie[0]);
-				if (prefix != null) {
-					return prefix + curie[1];
-				}
-			}
+		if (wampSession != null) {
+			return wampSession.expandCurie(uri);
 		}
 		return uri;
 	}
@@ -0,0 +1,54 @@
+/**
+ * Copyright 2014-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ch.rasc.wampspring.method;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Counts the CALL messages that are in progress and refuses new ones once the limit is
+ * reached. A call is in progress until its CALLRESULT or CALLERROR message is sent.
+ */
+class ConcurrencyLimit {
+
+	private final int limit;
+
+	private final AtomicInteger count = new AtomicInteger();
+
+	ConcurrencyLimit(int limit) {
+		this.limit = limit;
+	}
+
+	boolean tryAcquire() {
+		while (true) {
+			int current = this.count.get();
+			if (current >= this.limit) {
+				return false;
+			}
+			if (this.count.compareAndSet(current, current + 1)) {
+				return true;
+			}
+		}
+	}
+
+	void release() {
+		this.count.decrementAndGet();
+	}
+
+	int getCount() {
+		return this.count.get();
+	}
+
+}
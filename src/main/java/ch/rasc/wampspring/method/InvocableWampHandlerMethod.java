@@ -38,6 +38,10 @@ import ch.rasc.wampspring.message.WampMessage;
  * Use {@link #setMessageMethodArgumentResolvers(HandlerMethodArgumentResolver)} to
  * customize the list of argument resolvers.
  * <p>
+ * Parameter names and generic parameter types are resolved once when the instance is
+ * created. If the instance is created from a {@link WampHandlerMethod} it is reusable
+ * and thread-safe, the handler bean is resolved on every invocation.
+ * <p>
  *
  * @author Rossen Stoyanchev
  * @author Juergen Hoeller
@@ -51,6 +55,8 @@ public class InvocableWampHandlerMethod extends HandlerMethod {
 
 	private final MethodParameterConverter methodParameterConverter;
 
+	private final WampHandlerMethod wampHandlerMethod;
+
 	/**
 	 * Create an instance from a {@code HandlerMethod}.
 	 */
@@ -58,6 +64,17 @@ public class InvocableWampHandlerMethod extends HandlerMethod {
 			MethodParameterConverter methodParameterConverter) {
 		super(handlerMethod);
 		this.methodParameterConverter = methodParameterConverter;
+		this.wampHandlerMethod = handlerMethod instanceof WampHandlerMethod
+				? (WampHandlerMethod) handlerMethod : null;
+		initMethodParameters();
+		ReflectionUtils.makeAccessible(getBridgedMethod());
+	}
+
+	private void initMethodParameters() {
+		for (MethodParameter parameter : getMethodParameters()) {
+			parameter.initParameterNameDiscovery(this.parameterNameDiscoverer);
+			GenericTypeResolver.resolveParameterType(parameter, getBeanType());
+		}
 	}
 
 	public void setMessageMethodArgumentResolvers(
@@ -74,6 +91,7 @@ public class InvocableWampHandlerMethod extends HandlerMethod {
 	public void setParameterNameDiscoverer(
 			ParameterNameDiscoverer parameterNameDiscoverer) {
 		this.parameterNameDiscoverer = parameterNameDiscoverer;
+		initMethodParameters();
 	}
 
 	/**
@@ -104,9 +122,6 @@ public class InvocableWampHandlerMethod extends HandlerMethod {
 		int argIndex = 0;
 		for (int i = 0; i < parameters.length; i++) {
 			MethodParameter parameter = parameters[i];
-			parameter.initParameterNameDiscovery(this.parameterNameDiscoverer);
-			GenericTypeResolver.resolveParameterType(parameter, getBean().getClass());
-
 			if (this.argumentResolvers.supportsParameter(parameter)) {
 				try {
 					args[i] = this.argumentResolvers.resolveArgument(parameter, message);
@@ -163,14 +178,24 @@ public class InvocableWampHandlerMethod extends HandlerMethod {
 	 * Invoke the handler method with the given argument values.
 	 */
 	protected Object doInvoke(Object... args) throws Exception {
-		ReflectionUtils.makeAccessible(getBridgedMethod());
+		Object bean = this.wampHandlerMethod != null ? this.wampHandlerMethod.resolveBean()
+				: getBean();
+		return invokeHandlerMethod(bean, args);
+	}
+
+	/**
+	 * Invoke the handler method of the given bean with the given argument values.
+	 */
+	private Object invokeHandlerMethod(Object bean, Object[] args) throws Exception {
 		try {
-			return getBridgedMethod().invoke(getBean(), args);
+			return getBridgedMethod().invoke(bean, args);
 		}
 		catch (IllegalArgumentException ex) {
-			assertTargetBean(getBridgedMethod(), getBean(), args);
-			throw new IllegalStateException(
-					getInvocationErrorMessage(ex.getMessage(), args), ex);
+			assertTargetBean(getBridgedMethod(), bean, args);
+			// null for a primitive parameter is reported without a message
+			String text = ex.getMessage() != null ? ex.getMessage()
+					: "argument type mismatch";
+			throw new IllegalStateException(getInvocationErrorMessage(text, args), ex);
 		}
 		catch (InvocationTargetException ex) {
 			// Unwrap for HandlerExceptionResolvers ...
@@ -15,29 +15,42 @@
  */
 package ch.rasc.wampspring.method;
 
+import java.io.IOException;
 import java.lang.reflect.TypeVariable;
 import java.util.ArrayList;
-import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.springframework.core.MethodParameter;
+import org.springframework.core.ResolvableType;
 import org.springframework.core.convert.ConversionService;
 import org.springframework.core.convert.TypeDescriptor;
 import org.springframework.lang.UsesJava8;
 
 import com.fasterxml.jackson.databind.JavaType;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
 import com.fasterxml.jackson.databind.type.CollectionType;
 import com.fasterxml.jackson.databind.type.TypeBindings;
 import com.fasterxml.jackson.databind.type.TypeFactory;
 
+import ch.rasc.wampspring.message.DeferredJsonValue;
+
+/**
+ * Converts the arguments of a CALL or PUBLISH message into the types of the handler
+ * method parameters. Everything that only depends on the parameter, like type
+ * descriptors and Jackson types and readers, is computed once per parameter and cached.
+ */
 public class MethodParameterConverter {
 
 	private final ObjectMapper objectMapper;
 
 	private final ConversionService conversionService;
 
+	private final ConcurrentMap<ConversionKey, ParameterConversion> conversions = new ConcurrentHashMap<>();
+
 	public MethodParameterConverter(ObjectMapper objectMapper,
 			ConversionService conversionService) {
 		this.objectMapper = objectMapper;
@@ -45,83 +58,278 @@ public class MethodParameterConverter {
 	}
 
 	public Object convert(MethodParameter parameter, Object argument) {
-		if (argument == null) {
-			if (parameter.getParameterType().getName().equals("java.util.Optional")) {
-				return OptionalUnwrapper.empty();
+		ConversionKey key = new ConversionKey(parameter);
+		ParameterConversion conversion = this.conversions.get(key);
+		if (conversion == null) {
+			conversion = new ParameterConversion(parameter);
+			ParameterConversion existing = this.conversions.putIfAbsent(key,
+					conversion);
+			if (existing != null) {
+				conversion = existing;
 			}
+		}
+		return conversion.convert(argument);
+	}
 
-			return null;
+	private JavaType toJavaType(ResolvableType type) {
+		TypeFactory typeFactory = this.objectMapper.getTypeFactory();
+		if (type.isArray()) {
+			return typeFactory.constructArrayType(toJavaType(type.getComponentType()));
 		}
 
-		Class<?> sourceClass = argument.getClass();
-		Class<?> targetClass = parameter.getParameterType();
+		Class<?> rawClass = type.resolve(Object.class);
+		if (type.hasGenerics()) {
+			ResolvableType[] generics = type.getGenerics();
+			JavaType[] parameterTypes = new JavaType[generics.length];
+			for (int i = 0; i < generics.length; i++) {
+				parameterTypes[i] = toJavaType(generics[i]);
+			}
+			return typeFactory.constructParametricType(rawClass, parameterTypes);
+		}
+		return typeFactory.constructType(rawClass);
+	}
 
-		TypeDescriptor td = new TypeDescriptor(parameter);
+	/**
+	 * Cache key of a parameter. {@link MethodParameter#equals(Object)} only compares the
+	 * method and the parameter index. A method inherited from a generic base class by
+	 * several beans resolves to a different parameter type in each bean, so the
+	 * containing class is part of the key.
+	 */
+	private static final class ConversionKey {
 
-		if (targetClass.isAssignableFrom(sourceClass)) {
-			return convertListElements(td, argument);
+		private final MethodParameter parameter;
+
+		private final Class<?> containingClass;
+
+		ConversionKey(MethodParameter parameter) {
+			this.parameter = parameter;
+			this.containingClass = parameter.getContainingClass();
 		}
 
-		if (this.conversionService.canConvert(sourceClass, targetClass)) {
-			try {
-				return convertListElements(td,
-						this.conversionService.convert(argument, targetClass));
+		@Override
+		public boolean equals(Object other) {
+			if (this == other) {
+				return true;
 			}
-			catch (Exception e) {
-				// ignore this exception for collections and arrays.
-				// try to convert the value with jackson
+			if (!(other instanceof ConversionKey)) {
+				return false;
+			}
+			ConversionKey otherKey = (ConversionKey) other;
+			return this.containingClass == otherKey.containingClass
+					&& this.parameter.equals(otherKey.parameter);
+		}
 
-				TypeFactory typeFactory = this.objectMapper.getTypeFactory();
-				if (td.isCollection()) {
+		@Override
+		public int hashCode() {
+			return 31 * this.parameter.hashCode() + this.containingClass.hashCode();
+		}
+	}
 
-					JavaType elemType = typeFactory
-							.constructType(td.getElementTypeDescriptor().getType());
-					TypeVariable<?>[] vars = targetClass.getTypeParameters();
-					TypeBindings bindings;
-					if (vars == null || vars.length != 1) {
-						bindings = TypeBindings.emptyBindings();
-					}
-					else {
-						bindings = TypeBindings.create(targetClass, elemType);
-					}
-					JavaType superClass = null;
-					Class<?> parent = targetClass.getSuperclass();
-					if (parent != null) {
-						superClass = TypeFactory.unknownType();
-					}
+	/**
+	 * How a source type is converted into the parameter type
+	 */
+	private enum Strategy {
+		ASSIGNABLE, CONVERSION_SERVICE, JACKSON
+	}
+
+	/**
+	 * The conversion strategy for one source type
+	 */
+	private static class SourceStrategy {
+
+		final Class<?> sourceClass;
+
+		final Strategy strategy;
+
+		SourceStrategy(Class<?> sourceClass, Strategy strategy) {
+			this.sourceClass = sourceClass;
+			this.strategy = strategy;
+		}
+	}
+
+	/**
+	 * Converts arguments into the type of one method parameter. Created on the first
+	 * conversion for the parameter.
+	 */
+	private class ParameterConversion {
+
+		private final Class<?> targetClass;
+
+		private final TypeDescriptor typeDescriptor;
+
+		private final boolean optional;
+
+		/**
+		 * Reader for the full generic type of the parameter. Null for Optional parameters
+		 */
+		private final ObjectReader objectReader;
+
+		/**
+		 * Element type of a collection parameter, null if the parameter is not a
+		 * collection or the element type is unknown
+		 */
+		private final Class<?> listElementClass;
+
+		/**
+		 * ArrayList of the element type, converted lists are converted into this type
+		 */
+		private final JavaType listType;
+
+		/**
+		 * Jackson type for collections and arrays the ConversionService fails to convert
+		 */
+		private final JavaType fallbackType;
+
+		/**
+		 * Strategy for the last seen source type
+		 */
+		private volatile SourceStrategy lastSourceStrategy;
 
-					JavaType type = CollectionType.construct(targetClass, bindings,
-							superClass, null, elemType);
-					return this.objectMapper.convertValue(argument, type);
+		ParameterConversion(MethodParameter parameter) {
+			TypeFactory typeFactory = MethodParameterConverter.this.objectMapper
+					.getTypeFactory();
+			this.targetClass = parameter.getParameterType();
+			this.typeDescriptor = new TypeDescriptor(parameter);
+			this.optional = this.targetClass.getName().equals("java.util.Optional");
+
+			if (this.optional) {
+				this.objectReader = null;
+			}
+			else {
+				this.objectReader = MethodParameterConverter.this.objectMapper
+						.readerFor(toJavaType(ResolvableType.forMethodParameter(parameter)));
+			}
+
+			TypeDescriptor elementTypeDescriptor = this.typeDescriptor
+					.getElementTypeDescriptor();
+			if (this.typeDescriptor.isCollection() && elementTypeDescriptor != null) {
+				this.listElementClass = elementTypeDescriptor.getType();
+				this.listType = typeFactory.constructCollectionType(ArrayList.class,
+						this.listElementClass);
+			}
+			else {
+				this.listElementClass = null;
+				this.listType = null;
+			}
+
+			if (this.typeDescriptor.isCollection()) {
+				JavaType elemType = elementTypeDescriptor != null
+						? typeFactory.constructType(elementTypeDescriptor.getType())
+						: TypeFactory.unknownType();
+				TypeVariable<?>[] vars = this.targetClass.getTypeParameters();
+				TypeBindings bindings;
+				if (vars == null || vars.length != 1) {
+					bindings = TypeBindings.emptyBindings();
 				}
-				else if (td.isArray()) {
-					JavaType type = typeFactory
-							.constructArrayType(td.getElementTypeDescriptor().getType());
-					return this.objectMapper.convertValue(argument, type);
+				else {
+					bindings = TypeBindings.create(this.targetClass, elemType);
+				}
+				JavaType superClass = null;
+				Class<?> parent = this.targetClass.getSuperclass();
+				if (parent != null) {
+					superClass = TypeFactory.unknownType();
 				}
 
-				throw e;
+				this.fallbackType = CollectionType.construct(this.targetClass, bindings,
+						superClass, null, elemType);
+			}
+			else if (this.typeDescriptor.isArray()) {
+				this.fallbackType = typeFactory.constructArrayType(
+						this.typeDescriptor.getElementTypeDescriptor().getType());
+			}
+			else {
+				this.fallbackType = null;
+			}
+		}
+
+		Object convert(Object argument) {
+			if (argument instanceof DeferredJsonValue) {
+				return convertDeferred((DeferredJsonValue) argument);
+			}
+
+			if (argument == null) {
+				if (this.optional) {
+					return OptionalUnwrapper.empty();
+				}
+				return null;
+			}
+
+			switch (strategyFor(argument.getClass())) {
+			case ASSIGNABLE:
+				return convertListElements(argument);
+			case CONVERSION_SERVICE:
+				try {
+					return convertListElements(MethodParameterConverter.this.conversionService
+							.convert(argument, this.targetClass));
+				}
+				catch (Exception e) {
+					// ignore this exception for collections and arrays.
+					// try to convert the value with jackson
+					if (this.fallbackType != null) {
+						return MethodParameterConverter.this.objectMapper
+								.convertValue(argument, this.fallbackType);
+					}
+					throw e;
+				}
+			default:
+				return MethodParameterConverter.this.objectMapper.convertValue(argument,
+						this.targetClass);
 			}
 		}
-		return this.objectMapper.convertValue(argument, targetClass);
-	}
 
-	@SuppressWarnings("unchecked")
-	private Object convertListElements(TypeDescriptor td, Object convertedValue) {
-		if (List.class.isAssignableFrom(convertedValue.getClass()) && td.isCollection()
-				&& td.getElementTypeDescriptor() != null) {
-			Class<?> elementType = td.getElementTypeDescriptor().getType();
+		private Strategy strategyFor(Class<?> sourceClass) {
+			SourceStrategy last = this.lastSourceStrategy;
+			if (last != null && last.sourceClass == sourceClass) {
+				return last.strategy;
+			}
 
-			Collection<Object> convertedList = new ArrayList<>();
-			for (Object record : (List<Object>) convertedValue) {
-				Object convertedObject = this.objectMapper.convertValue(record,
-						elementType);
-				convertedList.add(convertedObject);
+			Strategy strategy;
+			if (this.targetClass.isAssignableFrom(sourceClass)) {
+				strategy = Strategy.ASSIGNABLE;
+			}
+			else if (MethodParameterConverter.this.conversionService
+					.canConvert(sourceClass, this.targetClass)) {
+				strategy = Strategy.CONVERSION_SERVICE;
 			}
-			return convertedList;
+			else {
+				strategy = Strategy.JACKSON;
+			}
+			this.lastSourceStrategy = new SourceStrategy(sourceClass, strategy);
+			return strategy;
+		}
 
+		/**
+		 * Reads a not yet decoded JSON object or array directly into the generic type of
+		 * the parameter, instead of decoding it into a Map/List and converting that.
+		 */
+		private Object convertDeferred(DeferredJsonValue argument) {
+			if (this.objectReader != null) {
+				try {
+					return argument.readValue(this.objectReader);
+				}
+				catch (IOException e) {
+					// the JSON value does not map to the type, e.g. an object for a
+					// String parameter. Convert the decoded value like any other argument
+				}
+			}
+			return convert(argument.getValue());
+		}
+
+		@SuppressWarnings("unchecked")
+		private Object convertListElements(Object convertedValue) {
+			if (this.listType != null && convertedValue instanceof List) {
+				List<Object> list = (List<Object>) convertedValue;
+				for (Object element : list) {
+					if (element != null && !this.listElementClass.isInstance(element)) {
+						// converts all elements at once
+						return MethodParameterConverter.this.objectMapper
+								.convertValue(list, this.listType);
+					}
+				}
+				return new ArrayList<>(list);
+			}
+			return convertedValue;
 		}
-		return convertedValue;
 	}
 
 	@UsesJava8
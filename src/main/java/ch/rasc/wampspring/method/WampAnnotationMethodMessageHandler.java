@@ -19,10 +19,18 @@ import java.lang.annotation.Annotation;
 import java.lang.reflect.Method;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -36,6 +44,7 @@ import org.springframework.context.SmartLifecycle;
 import org.springframework.core.MethodIntrospector;
 import org.springframework.core.annotation.AnnotationUtils;
 import org.springframework.core.convert.ConversionService;
+import org.springframework.lang.UsesJava8;
 import org.springframework.messaging.Message;
 import org.springframework.messaging.MessageChannel;
 import org.springframework.messaging.MessageDeliveryException;
@@ -56,6 +65,8 @@ import org.springframework.util.MultiValueMap;
 import org.springframework.util.PathMatcher;
 import org.springframework.util.ReflectionUtils.MethodFilter;
 import org.springframework.util.StringUtils;
+import org.springframework.util.concurrent.ListenableFuture;
+import org.springframework.util.concurrent.ListenableFutureCallback;
 
 import ch.rasc.wampspring.EventMessenger;
 import ch.rasc.wampspring.annotation.WampAuthenticated;
@@ -73,6 +84,7 @@ import ch.rasc.wampspring.message.PublishMessage;
 import ch.rasc.wampspring.message.SubscribeMessage;
 import ch.rasc.wampspring.message.UnsubscribeMessage;
 import ch.rasc.wampspring.message.WampMessage;
+import ch.rasc.wampspring.message.WampMessageType;
 
 /**
  * Internal class that is responsible for calling methods that are annotated with
@@ -126,6 +138,32 @@ public class WampAnnotationMethodMessageHandler implements MessageHandler,
 
 	private final MessageConverter messageConverter;
 
+	private static final boolean completionStagePresent = ClassUtils.isPresent(
+			"java.util.concurrent.CompletionStage",
+			WampAnnotationMethodMessageHandler.class.getClassLoader());
+
+	/**
+	 * Error URI of the CALLERROR message that is sent when a CALL message is refused
+	 * because too many calls are in progress or because it waited too long
+	 */
+	public static final String OVERLOADED_ERROR_URI = "http://wampspring.rasc.ch/error#overloaded";
+
+	private ConcurrencyLimit callLimit;
+
+	private long maxCallQueueTimeNanos = 0;
+
+	/** Default maximum number of entries for the dispatch cache of each message type */
+	public static final int DEFAULT_DISPATCH_CACHE_LIMIT = 1024;
+
+	private volatile int dispatchCacheLimit = DEFAULT_DISPATCH_CACHE_LIMIT;
+
+	/**
+	 * Map from message type -> cache of the matches for a destination. Contains an entry
+	 * for every message type
+	 */
+	private final Map<WampMessageType, DispatchCache> dispatchCaches = new EnumMap<>(
+			WampMessageType.class);
+
 	public WampAnnotationMethodMessageHandler(SubscribableChannel clientInboundChannel,
 			MessageChannel clientOutboundChannel, EventMessenger eventMessenger,
 			ConversionService conversionService,
@@ -139,6 +177,10 @@ public class WampAnnotationMethodMessageHandler implements MessageHandler,
 		this.pathMatcher = pathMatcher;
 		this.wampMessageSelector = wampMessageSelector;
 		this.messageConverter = messageConverter;
+
+		for (WampMessageType messageType : WampMessageType.values()) {
+			this.dispatchCaches.put(messageType, new DispatchCache());
+		}
 	}
 
 	public void setAuthenticationRequiredGlobal(boolean authenticationRequiredGlobal) {
@@ -149,6 +191,46 @@ public class WampAnnotationMethodMessageHandler implements MessageHandler,
 		this.sendTimeout = sendTimeout;
 	}
 
+	/**
+	 * Specify the maximum number of destinations per message type whose matching handler
+	 * methods and template variables are cached. Default is
+	 * {@value #DEFAULT_DISPATCH_CACHE_LIMIT}.
+	 */
+	public void setDispatchCacheLimit(int dispatchCacheLimit) {
+		this.dispatchCacheLimit = dispatchCacheLimit;
+	}
+
+	/**
+	 * Specify the maximum number of CALL messages that are in progress at the same time.
+	 * A call is in progress until its CALLRESULT or CALLERROR message is sent, this
+	 * includes calls with a pending asynchronous result. Additional CALL messages are
+	 * answered immediately with a CALLERROR message with the error URI
+	 * {@value #OVERLOADED_ERROR_URI}.
+	 * <p>
+	 * A limit for a single procedure can be specified with
+	 * {@link WampCallListener#maxConcurrentCalls()}. By default there is no limit.
+	 *
+	 * @param maxConcurrentCalls the maximum number of calls, 0 for no limit
+	 */
+	public void setMaxConcurrentCalls(int maxConcurrentCalls) {
+		this.callLimit = maxConcurrentCalls > 0 ? new ConcurrencyLimit(maxConcurrentCalls)
+				: null;
+	}
+
+	/**
+	 * Specify the maximum time in milliseconds a CALL message may wait between its
+	 * arrival and its processing. A CALL message that waited longer is answered with a
+	 * CALLERROR message with the error URI {@value #OVERLOADED_ERROR_URI} and the
+	 * procedure is not called. By default there is no limit.
+	 *
+	 * @param maxCallQueueTime the maximum time in milliseconds, 0 for no limit
+	 */
+	public void setMaxCallQueueTime(long maxCallQueueTime) {
+		this.maxCallQueueTimeNanos = maxCallQueueTime > 0
+				? TimeUnit.MILLISECONDS.toNanos(maxCallQueueTime)
+				: 0;
+	}
+
 	@Override
 	public boolean isAutoStartup() {
 		return true;
@@ -281,35 +363,129 @@ public class WampAnnotationMethodMessageHandler implements MessageHandler,
 
 	private void handleCallMessage(CallMessage callMessage,
 			WampHandlerMethod handlerMethod) {
+		// unauthenticated calls must not take a slot of the call limits
 		try {
 			checkAuthentication(handlerMethod, callMessage);
+		}
+		catch (SecurityException e) {
+			sendCallError(callMessage, e);
+			return;
+		}
+
+		if (!admitCall(callMessage, handlerMethod)) {
+			return;
+		}
 
-			InvocableWampHandlerMethod invocable = new InvocableWampHandlerMethod(
-					handlerMethod.createWithResolvedBean(),
-					this.methodParameterConverter);
-			invocable.setMessageMethodArgumentResolvers(this.argumentResolvers);
+		Object returnValue;
+		try {
+			InvocableWampHandlerMethod invocable = handlerMethod
+					.getInvocableHandlerMethod();
 
+			// object and array arguments are read directly into the parameter types
 			Object[] arguments = null;
-			if (callMessage.getArguments() != null) {
-				arguments = callMessage.getArguments().toArray();
+			if (callMessage.getRawArguments() != null) {
+				arguments = callMessage.getRawArguments().toArray();
 			}
-			Object returnValue = invocable.invoke(callMessage, arguments);
-			CallResultMessage callResultMessage = new CallResultMessage(callMessage,
-					returnValue);
-			send(callResultMessage);
-		}
-		catch (Exception ex) {
-			CallErrorMessage callErrorMessage = new CallErrorMessage(callMessage, "",
-					ex.toString());
-			send(callErrorMessage);
-			this.logger.error("Error while processing message " + callMessage, ex);
+			returnValue = invocable.invoke(callMessage, arguments);
 		}
 		catch (Throwable t) {
-			CallErrorMessage callErrorMessage = new CallErrorMessage(callMessage, "",
-					t.toString());
-			send(callErrorMessage);
-			this.logger.error("Error while processing message " + callErrorMessage, t);
+			completeCall(callMessage, handlerMethod, null, t);
+			return;
 		}
+
+		// asynchronous results are sent when they complete, the inbound thread is
+		// released immediately
+		if (returnValue instanceof ListenableFuture) {
+			handleListenableFuture(callMessage, handlerMethod, returnValue);
+		}
+		else if (!completionStagePresent || !CompletionStageAdapter.handle(this,
+				callMessage, handlerMethod, returnValue)) {
+			completeCall(callMessage, handlerMethod, returnValue, null);
+		}
+	}
+
+	/**
+	 * Checks the queue time and the concurrency limits of a CALL message. If the call is
+	 * refused a CALLERROR message is sent and false is returned. Otherwise the call
+	 * counts as in progress until {@link #completeCall} is called.
+	 */
+	private boolean admitCall(CallMessage callMessage, WampHandlerMethod handlerMethod) {
+		String refusal = null;
+
+		long receivedNanoTime = callMessage.getReceivedNanoTime();
+		if (this.maxCallQueueTimeNanos > 0 && receivedNanoTime != 0
+				&& System.nanoTime() - receivedNanoTime > this.maxCallQueueTimeNanos) {
+			refusal = "Call waited too long";
+		}
+		else if (this.callLimit != null && !this.callLimit.tryAcquire()) {
+			refusal = "Too many calls in progress";
+		}
+		else if (handlerMethod.getCallLimit() != null
+				&& !handlerMethod.getCallLimit().tryAcquire()) {
+			if (this.callLimit != null) {
+				this.callLimit.release();
+			}
+			refusal = "Too many calls of " + callMessage.getProcURI() + " in progress";
+		}
+
+		if (refusal == null) {
+			return true;
+		}
+
+		if (this.logger.isDebugEnabled()) {
+			this.logger.debug(refusal + ". Refusing " + callMessage);
+		}
+		send(new CallErrorMessage(callMessage, OVERLOADED_ERROR_URI, refusal));
+		return false;
+	}
+
+	@SuppressWarnings("unchecked")
+	private void handleListenableFuture(final CallMessage callMessage,
+			final WampHandlerMethod handlerMethod, Object returnValue) {
+		((ListenableFuture<Object>) returnValue)
+				.addCallback(new ListenableFutureCallback<Object>() {
+					@Override
+					public void onSuccess(Object result) {
+						completeCall(callMessage, handlerMethod, result, null);
+					}
+
+					@Override
+					public void onFailure(Throwable ex) {
+						completeCall(callMessage, handlerMethod, null, ex);
+					}
+				});
+	}
+
+	/**
+	 * Sends the CALLRESULT message. Sends a CALLERROR message instead if the handler
+	 * method failed or if the CALLRESULT message could not be sent.
+	 */
+	private void completeCall(CallMessage callMessage, WampHandlerMethod handlerMethod,
+			Object result, Throwable failure) {
+		if (this.callLimit != null) {
+			this.callLimit.release();
+		}
+		if (handlerMethod.getCallLimit() != null) {
+			handlerMethod.getCallLimit().release();
+		}
+
+		Throwable error = failure;
+		if (error == null) {
+			try {
+				send(new CallResultMessage(callMessage, result));
+				return;
+			}
+			catch (Throwable t) {
+				error = t;
+			}
+		}
+
+		sendCallError(callMessage, error);
+	}
+
+	private void sendCallError(CallMessage callMessage, Throwable error) {
+		this.logger.error("Error while processing message " + callMessage, error);
+		send(new CallErrorMessage(callMessage, "", error.toString()));
 	}
 
 	public void send(WampMessage wampMessage) {
@@ -332,10 +508,8 @@ public class WampAnnotationMethodMessageHandler implements MessageHandler,
 		try {
 			checkAuthentication(wampHandlerMethod, wampMessage);
 
-			InvocableWampHandlerMethod invocable = new InvocableWampHandlerMethod(
-					wampHandlerMethod.createWithResolvedBean(),
-					this.methodParameterConverter);
-			invocable.setMessageMethodArgumentResolvers(this.argumentResolvers);
+			InvocableWampHandlerMethod invocable = wampHandlerMethod
+					.getInvocableHandlerMethod();
 
 			Object returnValue = invocable.invoke(wampMessage, argument);
 			if (returnValue != null) {
@@ -407,6 +581,13 @@ public class WampAnnotationMethodMessageHandler implements MessageHandler,
 					this.applicationContext, method, replyTo, broadcast, excludeSender,
 					authenticationRequired);
 
+			Integer maxConcurrentCalls = (Integer) AnnotationUtils.getValue(annotation,
+					"maxConcurrentCalls");
+			if (maxConcurrentCalls != null && maxConcurrentCalls.intValue() > 0) {
+				newHandlerMethod
+						.setCallLimit(new ConcurrencyLimit(maxConcurrentCalls.intValue()));
+			}
+
 			String[] destinations = (String[]) AnnotationUtils.getValue(annotation);
 			if (destinations.length == 0) {
 				// by default use beanName.methodName as destination
@@ -447,7 +628,15 @@ public class WampAnnotationMethodMessageHandler implements MessageHandler,
 	private void registerHandlerMethod(WampHandlerMethod newHandlerMethod,
 			WampMessageMappingInfo mapping) {
 
+		InvocableWampHandlerMethod invocable = new InvocableWampHandlerMethod(
+				newHandlerMethod, this.methodParameterConverter);
+		invocable.setMessageMethodArgumentResolvers(this.argumentResolvers);
+		newHandlerMethod.setInvocableHandlerMethod(invocable);
+
 		this.handlerMethods.add(mapping, newHandlerMethod);
+		for (DispatchCache dispatchCache : this.dispatchCaches.values()) {
+			dispatchCache.clear();
+		}
 		if (this.logger.isInfoEnabled()) {
 			this.logger.info("Mapped \"" + mapping + "\" onto " + newHandlerMethod);
 		}
@@ -536,18 +725,16 @@ public class WampAnnotationMethodMessageHandler implements MessageHandler,
 	}
 
 	private void handleMessageInternal(WampMessage message, String lookupDestination) {
-		List<Match> matches = new ArrayList<>();
-
-		List<WampMessageMappingInfo> mappingsByUrl = this.destinationLookup
-				.get(lookupDestination);
-		if (mappingsByUrl != null) {
-			addMatchesToCollection(mappingsByUrl, message, matches);
-		}
-		if (matches.isEmpty()) {
-			// No direct hits, go through all mappings
-			Set<WampMessageMappingInfo> allMappings = this.handlerMethods.keySet();
-			addMatchesToCollection(allMappings, message, matches);
+		DispatchCache dispatchCache = this.dispatchCaches.get(message.getType());
+		List<Match> matches = dispatchCache != null ? dispatchCache.get(lookupDestination)
+				: null;
+		if (matches == null) {
+			matches = findMatches(message, lookupDestination);
+			if (dispatchCache != null) {
+				dispatchCache.put(lookupDestination, matches);
+			}
 		}
+
 		if (matches.isEmpty()) {
 			handleNoMatch(this.handlerMethods.keySet(), lookupDestination, message);
 			return;
@@ -558,42 +745,70 @@ public class WampAnnotationMethodMessageHandler implements MessageHandler,
 		}
 
 		for (Match match : matches) {
-			handleMatch(match.mapping, match.handlerMethod, lookupDestination, message);
+			handleMatch(match, message);
+		}
+	}
+
+	/**
+	 * Finds the handler methods for the message. The result only depends on the message
+	 * type and the destination of the message.
+	 */
+	private List<Match> findMatches(WampMessage message, String lookupDestination) {
+		List<Match> matches = new ArrayList<>();
+
+		List<WampMessageMappingInfo> mappingsByUrl = this.destinationLookup
+				.get(lookupDestination);
+		if (mappingsByUrl != null) {
+			addMatchesToCollection(mappingsByUrl, message, matches);
 		}
+		if (matches.isEmpty()) {
+			// No direct hits, go through all mappings
+			Set<WampMessageMappingInfo> allMappings = this.handlerMethods.keySet();
+			addMatchesToCollection(allMappings, message, matches);
+		}
+		return matches;
 	}
 
 	private void addMatchesToCollection(
-			Collection<WampMessageMappingInfo> mappingsToCheck, Message<?> message,
+			Collection<WampMessageMappingInfo> mappingsToCheck, WampMessage message,
 			List<Match> matches) {
 		for (WampMessageMappingInfo mapping : mappingsToCheck) {
 			WampMessageMappingInfo match = mapping.getMatchingCondition(message);
 			if (match != null) {
+				Map<String, String> vars = extractTemplateVariables(match, message);
 				List<WampHandlerMethod> methods = this.handlerMethods.get(mapping);
 				for (WampHandlerMethod method : methods) {
-					matches.add(new Match(match, method));
+					matches.add(new Match(match, method, vars));
 				}
 			}
 		}
 	}
 
-	private void handleMatch(WampMessageMappingInfo mapping,
-			WampHandlerMethod handlerMethod, String lookupDestination,
+	private Map<String, String> extractTemplateVariables(WampMessageMappingInfo match,
 			WampMessage message) {
-
-		if (!"**".equals(message.getDestination())) {
-			String matchedPattern = mapping.getDestinationConditions().getPatterns()
+		String destination = message.getDestination();
+		if (!"**".equals(destination)) {
+			String matchedPattern = match.getDestinationConditions().getPatterns()
 					.iterator().next();
 			Map<String, String> vars = this.pathMatcher
-					.extractUriTemplateVariables(matchedPattern, lookupDestination);
+					.extractUriTemplateVariables(matchedPattern, destination);
 
 			if (!CollectionUtils.isEmpty(vars)) {
-				message.setDestinationTemplateVariables(vars);
+				// shared by all messages sent to this destination
+				return Collections.unmodifiableMap(vars);
 			}
 		}
+		return null;
+	}
+
+	private void handleMatch(Match match, WampMessage message) {
+		if (match.templateVariables != null) {
+			message.setDestinationTemplateVariables(match.templateVariables);
+		}
 
 		try {
 			WampSessionContextHolder.setAttributesFromMessage(message);
-			handleMatchInternal(handlerMethod, message);
+			handleMatchInternal(match.handlerMethod, message);
 		}
 		finally {
 			WampSessionContextHolder.resetAttributes();
@@ -614,8 +829,8 @@ public class WampAnnotationMethodMessageHandler implements MessageHandler,
 	}
 
 	/**
-	 * A thin wrapper around a matched HandlerMethod and its matched mapping for the
-	 * purpose of comparing the best match with a comparator in the context of a message.
+	 * A thin wrapper around a matched HandlerMethod, its matched mapping and the template
+	 * variables extracted from the destination.
 	 */
 	static class Match {
 
@@ -623,9 +838,13 @@ public class WampAnnotationMethodMessageHandler implements MessageHandler,
 
 		final WampHandlerMethod handlerMethod;
 
-		private Match(WampMessageMappingInfo mapping, WampHandlerMethod handlerMethod) {
+		final Map<String, String> templateVariables;
+
+		private Match(WampMessageMappingInfo mapping, WampHandlerMethod handlerMethod,
+				Map<String, String> templateVariables) {
 			this.mapping = mapping;
 			this.handlerMethod = handlerMethod;
+			this.templateVariables = templateVariables;
 		}
 
 		@Override
@@ -634,4 +853,77 @@ public class WampAnnotationMethodMessageHandler implements MessageHandler,
 		}
 	}
 
+	/**
+	 * Sends the result of a handler method that returns a {@link CompletionStage}, e.g. a
+	 * {@link java.util.concurrent.CompletableFuture}, when it completes.
+	 */
+	@UsesJava8
+	private static class CompletionStageAdapter {
+
+		static boolean handle(final WampAnnotationMethodMessageHandler messageHandler,
+				final CallMessage callMessage, final WampHandlerMethod handlerMethod,
+				Object returnValue) {
+			if (!(returnValue instanceof CompletionStage)) {
+				return false;
+			}
+
+			((CompletionStage<?>) returnValue)
+					.whenComplete(new BiConsumer<Object, Throwable>() {
+						@Override
+						public void accept(Object result, Throwable failure) {
+							Throwable error = failure;
+							if (error instanceof CompletionException
+									&& error.getCause() != null) {
+								error = error.getCause();
+							}
+							messageHandler.completeCall(callMessage, handlerMethod,
+									result, error);
+						}
+					});
+			return true;
+		}
+	}
+
+	/**
+	 * Bounded cache from destination -> matches, one per message type. Reads go to a
+	 * ConcurrentHashMap, updates and the eviction of the least recently added entries
+	 * are synchronized on a LinkedHashMap.
+	 */
+	private class DispatchCache {
+
+		private final Map<String, List<Match>> accessCache = new ConcurrentHashMap<>(
+				DEFAULT_DISPATCH_CACHE_LIMIT);
+
+		@SuppressWarnings("serial")
+		private final Map<String, List<Match>> updateCache = new LinkedHashMap<String, List<Match>>(
+				DEFAULT_DISPATCH_CACHE_LIMIT, 0.75f, false) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, List<Match>> eldest) {
+				if (size() > WampAnnotationMethodMessageHandler.this.dispatchCacheLimit) {
+					DispatchCache.this.accessCache.remove(eldest.getKey());
+					return true;
+				}
+				return false;
+			}
+		};
+
+		List<Match> get(String destination) {
+			return this.accessCache.get(destination);
+		}
+
+		void put(String destination, List<Match> matches) {
+			synchronized (this.updateCache) {
+				this.updateCache.put(destination, matches);
+				this.accessCache.put(destination, matches);
+			}
+		}
+
+		void clear() {
+			synchronized (this.updateCache) {
+				this.updateCache.clear();
+				this.accessCache.clear();
+			}
+		}
+	}
+
 }
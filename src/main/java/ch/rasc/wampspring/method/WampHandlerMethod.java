@@ -30,10 +30,19 @@ public class WampHandlerMethod extends HandlerMethod {
 
 	private final boolean authenticationRequired;
 
+	private final BeanFactory beanFactory;
+
+	private volatile Object singletonBean;
+
+	private InvocableWampHandlerMethod invocableHandlerMethod;
+
+	private ConcurrencyLimit callLimit;
+
 	public WampHandlerMethod(String beanName, BeanFactory beanFactory, Method method,
 			String[] replyTo, Boolean broadcast, Boolean excludeSender,
 			boolean authenticationRequired) {
 		super(beanName, beanFactory, method);
+		this.beanFactory = beanFactory;
 
 		if (replyTo != null) {
 			this.replyTo = replyTo;
@@ -65,4 +74,41 @@ public class WampHandlerMethod extends HandlerMethod {
 		return this.authenticationRequired;
 	}
 
+	/**
+	 * Returns the handler bean. A singleton bean is looked up in the bean factory only
+	 * once, beans of other scopes on every call.
+	 */
+	public Object resolveBean() {
+		Object singleton = this.singletonBean;
+		if (singleton != null) {
+			return singleton;
+		}
+
+		Object bean = getBean();
+		if (bean instanceof String) {
+			String beanName = (String) bean;
+			bean = this.beanFactory.getBean(beanName);
+			if (this.beanFactory.isSingleton(beanName)) {
+				this.singletonBean = bean;
+			}
+		}
+		return bean;
+	}
+
+	InvocableWampHandlerMethod getInvocableHandlerMethod() {
+		return this.invocableHandlerMethod;
+	}
+
+	void setInvocableHandlerMethod(InvocableWampHandlerMethod invocableHandlerMethod) {
+		this.invocableHandlerMethod = invocableHandlerMethod;
+	}
+
+	ConcurrencyLimit getCallLimit() {
+		return this.callLimit;
+	}
+
+	void setCallLimit(ConcurrencyLimit callLimit) {
+		this.callLimit = callLimit;
+	}
+
 }
@@ -26,6 +26,7 @@ import org.springframework.util.Assert;
 import ch.rasc.wampspring.EventMessenger;
 import ch.rasc.wampspring.broker.SimpleBrokerMessageHandler;
 import ch.rasc.wampspring.message.EventMessage;
+import ch.rasc.wampspring.message.RawJson;
 
 /**
  * Enhanced {@link EventMessenger} that has additional methods that allow a sender to send
@@ -34,6 +35,9 @@ import ch.rasc.wampspring.message.EventMessage;
  * This class is not registered by default. See {@link AbstractUserWampConfigurer} for
  * configuration.
  *
+ * Like with the {@link EventMessenger} a pre-encoded event can be sent as a
+ * {@link RawJson}.
+ *
  * @see AbstractUserWampConfigurer
  * @see EventMessenger
  */
@@ -21,6 +21,9 @@ import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
@@ -40,10 +43,14 @@ import org.springframework.util.AntPathMatcher;
 import org.springframework.util.ObjectUtils;
 import org.springframework.web.socket.adapter.standard.StandardWebSocketSession;
 
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.databind.MappingJsonFactory;
+
 import ch.rasc.wampspring.config.WampMessageSelectors;
 import ch.rasc.wampspring.message.EventMessage;
 import ch.rasc.wampspring.message.PublishMessage;
 import ch.rasc.wampspring.message.SubscribeMessage;
+import ch.rasc.wampspring.message.TopicTable;
 import ch.rasc.wampspring.message.UnsubscribeMessage;
 
 /**
@@ -69,6 +76,8 @@ public class SimpleBrokerMessageHandlerTests {
 	@Before
 	public void setup() {
 		MockitoAnnotations.initMocks(this);
+		Mockito.when(this.clientOutboundChannel.send(Mockito.any(EventMessage.class)))
+				.thenReturn(true);
 		this.messageHandler = new SimpleBrokerMessageHandler(this.clientInboundChannel,
 				this.clientOutboundChannel, this.brokerChannel,
 				new DefaultSubscriptionRegistry(new AntPathMatcher()),
@@ -502,6 +511,142 @@ public class SimpleBrokerMessageHandlerTests {
 		assertCapturedMessage(eventMessage("sess2", "/foo", "message1"));
 	}
 
+	@Test
+	public void testConflation() throws IOException {
+		this.messageHandler.setConflatedTopicPatterns(Arrays.asList("/ticker/**"));
+		this.messageHandler.handleMessage(subscribeMessage("sess1", "/ticker/a"));
+		this.messageHandler.handleMessage(subscribeMessage("sess1", "/foo"));
+
+		this.messageHandler.handleMessage(publishMessage("sess2", "/ticker/a", "1"));
+		this.messageHandler.handleMessage(publishMessage("sess2", "/ticker/a", "2"));
+		this.messageHandler.handleMessage(publishMessage("sess2", "/ticker/a", "3"));
+		this.messageHandler.handleMessage(publishMessage("sess2", "/foo", "1"));
+		this.messageHandler.handleMessage(publishMessage("sess2", "/foo", "2"));
+
+		verify(this.clientOutboundChannel, times(3)).send(this.messageCaptor.capture());
+		List<EventMessage> messages = this.messageCaptor.getAllValues();
+		assertThat(messages.get(0)).isInstanceOf(ConflatedEventMessage.class);
+		assertThat(messages.get(1)).isNotInstanceOf(ConflatedEventMessage.class);
+
+		// the pending event is replaced by the newest one
+		JsonFactory jsonFactory = new MappingJsonFactory();
+		assertThat(messages.get(0).toTextMessage(jsonFactory).getPayload())
+				.isEqualTo(new EventMessage("/ticker/a", "3").toJson(jsonFactory));
+
+		// the next event sends a new placeholder
+		this.messageHandler.handleMessage(publishMessage("sess2", "/ticker/a", "4"));
+		verify(this.clientOutboundChannel, times(4)).send(this.messageCaptor.capture());
+		EventMessage last = this.messageCaptor.getValue();
+		assertThat(last).isInstanceOf(ConflatedEventMessage.class);
+		assertThat(last.toTextMessage(jsonFactory).getPayload())
+				.isEqualTo(new EventMessage("/ticker/a", "4").toJson(jsonFactory));
+	}
+
+	@Test
+	public void testConflationAfterFailedSend() {
+		Mockito.when(this.clientOutboundChannel.send(Mockito.any(EventMessage.class)))
+				.thenThrow(new IllegalStateException("closed")).thenReturn(true);
+		this.messageHandler.setConflatedTopicPatterns(Arrays.asList("/ticker/**"));
+		this.messageHandler.handleMessage(subscribeMessage("sess1", "/ticker/a"));
+
+		this.messageHandler.handleMessage(publishMessage("sess2", "/ticker/a", "1"));
+		// the failed placeholder does not block the topic
+		this.messageHandler.handleMessage(publishMessage("sess2", "/ticker/a", "2"));
+
+		verify(this.clientOutboundChannel, times(2)).send(this.messageCaptor.capture());
+		assertThat(this.messageCaptor.getValue())
+				.isInstanceOf(ConflatedEventMessage.class);
+	}
+
+	@Test
+	public void testConflationUnsubscribeRemovesPendingEvent() {
+		this.messageHandler.setConflatedTopicPatterns(Arrays.asList("/ticker/**"));
+		this.messageHandler.handleMessage(subscribeMessage("sess1", "/ticker/*"));
+		this.messageHandler.handleMessage(publishMessage("sess2", "/ticker/a", "1"));
+		verify(this.clientOutboundChannel, times(1)).send(this.messageCaptor.capture());
+
+		this.messageHandler.handleMessage(unsubscribeMessage("sess1", "/ticker/*"));
+		this.messageHandler.handleMessage(subscribeMessage("sess1", "/ticker/a"));
+		this.messageHandler.handleMessage(publishMessage("sess2", "/ticker/a", "2"));
+
+		// the placeholder of the old subscription is not reused
+		verify(this.clientOutboundChannel, times(2)).send(this.messageCaptor.capture());
+	}
+
+	@Test
+	public void testConflationUnsubscribeKeepsPendingEventOfActiveSubscription()
+			throws IOException {
+		this.messageHandler.setConflatedTopicPatterns(Arrays.asList("/ticker/**"));
+		this.messageHandler.handleMessage(subscribeMessage("sess1", "/ticker/a"));
+		this.messageHandler.handleMessage(subscribeMessage("sess1", "/ticker/*"));
+		this.messageHandler.handleMessage(publishMessage("sess2", "/ticker/a", "1"));
+		verify(this.clientOutboundChannel, times(1)).send(this.messageCaptor.capture());
+
+		// sess1 is still subscribed to /ticker/a
+		this.messageHandler.handleMessage(unsubscribeMessage("sess1", "/ticker/*"));
+		this.messageHandler.handleMessage(publishMessage("sess2", "/ticker/a", "2"));
+
+		// the pending placeholder is updated, no second one is sent
+		verify(this.clientOutboundChannel, times(1)).send(this.messageCaptor.capture());
+		JsonFactory jsonFactory = new MappingJsonFactory();
+		assertThat(this.messageCaptor.getValue().toTextMessage(jsonFactory).getPayload())
+				.isEqualTo(new EventMessage("/ticker/a", "2").toJson(jsonFactory));
+	}
+
+	@Test
+	public void testConflationUsesSendEventMessageHook() {
+		final List<String> receivers = new ArrayList<>();
+		SimpleBrokerMessageHandler handler = new SimpleBrokerMessageHandler(
+				this.clientInboundChannel, this.clientOutboundChannel,
+				this.brokerChannel, new DefaultSubscriptionRegistry(new AntPathMatcher()),
+				WampMessageSelectors.ACCEPT_ALL) {
+			@Override
+			protected void sendEventMessage(EventMessage originEventMessage,
+					String receiverSessionId) {
+				receivers.add(receiverSessionId);
+				super.sendEventMessage(originEventMessage, receiverSessionId);
+			}
+		};
+		handler.setConflatedTopicPatterns(Arrays.asList("/ticker/**"));
+		handler.start();
+		handler.handleMessage(subscribeMessage("sess1", "/ticker/a"));
+		handler.handleMessage(subscribeMessage("sess1", "/foo"));
+
+		handler.handleMessage(publishMessage("sess2", "/ticker/a", "1"));
+		handler.handleMessage(publishMessage("sess2", "/foo", "1"));
+
+		assertThat(receivers).containsExactly("sess1", "sess1");
+		verify(this.clientOutboundChannel, times(2)).send(this.messageCaptor.capture());
+		assertThat(this.messageCaptor.getAllValues().get(0))
+				.isInstanceOf(ConflatedEventMessage.class);
+		assertThat(this.messageCaptor.getAllValues().get(0).getWebSocketSessionId())
+				.isEqualTo("sess1");
+	}
+
+	@Test
+	public void testTopicTable() {
+		TopicTable topicTable = new TopicTable();
+		this.messageHandler = new SimpleBrokerMessageHandler(this.clientInboundChannel,
+				this.clientOutboundChannel, this.brokerChannel,
+				new DefaultSubscriptionRegistry(new AntPathMatcher(), topicTable),
+				WampMessageSelectors.ACCEPT_ALL);
+		this.messageHandler.setTopicTable(topicTable);
+		this.messageHandler.start();
+
+		this.messageHandler.handleMessage(subscribeMessage("sess1", "/foo"));
+		assertThat(this.messageHandler.getStatsInfo()).contains("subscribed topics = 1");
+
+		// events of the application are canonicalized by the broker
+		this.messageHandler
+				.handleMessage(eventMessage("sess2", new String("/foo"), "message1"));
+		verify(this.clientOutboundChannel, times(1)).send(this.messageCaptor.capture());
+		assertThat(this.messageCaptor.getValue().getTopicURI())
+				.isSameAs(topicTable.get("/foo").getUri());
+
+		this.messageHandler.handleMessage(unsubscribeMessage("sess1", "/foo"));
+		assertThat(this.messageHandler.getStatsInfo()).contains("subscribed topics = 0");
+	}
+
 	private static SubscribeMessage subscribeMessage(String sessionId, String topicURI) {
 		SubscribeMessage message = new SubscribeMessage(topicURI);
 		message.setWebSocketSessionId(sessionId);
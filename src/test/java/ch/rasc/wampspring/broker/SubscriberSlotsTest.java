@@ -0,0 +1,112 @@
+/**
+ * Copyright 2014-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ch.rasc.wampspring.broker;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.BitSet;
+
+import org.junit.Test;
+
+public class SubscriberSlotsTest {
+
+	@Test
+	public void singleSubscriberInHighSlotIsSparse() {
+		SubscriberSlots slots = new SubscriberSlots();
+		assertThat(slots.add(100000)).isTrue();
+		assertThat(slots.add(100000)).isFalse();
+
+		SlotSet snapshot = slots.snapshot();
+		// a bitset would need 12.5 KB for this slot
+		assertThat(snapshot.isSparse()).isTrue();
+		assertThat(snapshot.contains(100000)).isTrue();
+		assertThat(snapshot.contains(99_999)).isFalse();
+		assertThat(snapshot.nextSlot(0)).isEqualTo(100000);
+		assertThat(snapshot.nextSlot(100_001)).isEqualTo(-1);
+
+		assertThat(slots.remove(100000)).isTrue();
+		assertThat(slots.remove(100000)).isFalse();
+		assertThat(slots.isEmpty()).isTrue();
+		assertThat(slots.snapshot().isEmpty()).isTrue();
+	}
+
+	@Test
+	public void switchesBetweenSparseAndDense() {
+		SubscriberSlots slots = new SubscriberSlots();
+		for (int slot = 0; slot < 1000; slot++) {
+			slots.add(slot);
+		}
+		SlotSet snapshot = slots.snapshot();
+		assertThat(snapshot.isSparse()).isFalse();
+		assertThat(toBitSet(snapshot).cardinality()).isEqualTo(1000);
+
+		for (int slot = 0; slot < 990; slot++) {
+			slots.remove(slot);
+		}
+		snapshot = slots.snapshot();
+		assertThat(snapshot.isSparse()).isTrue();
+		BitSet expected = new BitSet();
+		expected.set(990, 1000);
+		assertThat(toBitSet(snapshot)).isEqualTo(expected);
+	}
+
+	@Test
+	public void snapshotIsCreatedOnceAfterChanges() {
+		SubscriberSlots slots = new SubscriberSlots();
+		for (int slot = 0; slot < 10000; slot++) {
+			slots.add(slot);
+		}
+		SlotSet snapshot = slots.snapshot();
+		assertThat(slots.snapshot()).isSameAs(snapshot);
+
+		slots.add(10000);
+		slots.remove(0);
+		SlotSet newSnapshot = slots.snapshot();
+		assertThat(newSnapshot).isNotSameAs(snapshot);
+		assertThat(newSnapshot.contains(0)).isFalse();
+		assertThat(newSnapshot.contains(10000)).isTrue();
+
+		// the old snapshot does not change
+		assertThat(snapshot.contains(0)).isTrue();
+		assertThat(snapshot.contains(10000)).isFalse();
+	}
+
+	@Test
+	public void filter() {
+		SubscriberSlots slots = new SubscriberSlots();
+		slots.add(5);
+		slots.add(50000);
+		slots.add(70000);
+
+		BitSet eligible = new BitSet();
+		eligible.set(5);
+		eligible.set(50000);
+		BitSet exclude = new BitSet();
+		exclude.set(5);
+
+		SlotSet filtered = slots.snapshot().filter(eligible, exclude);
+		assertThat(filtered.isSparse()).isTrue();
+		assertThat(filtered.nextSlot(0)).isEqualTo(50000);
+		assertThat(filtered.nextSlot(50_001)).isEqualTo(-1);
+	}
+
+	private static BitSet toBitSet(SlotSet slotSet) {
+		BitSet bits = new BitSet();
+		slotSet.addTo(bits);
+		return bits;
+	}
+
+}
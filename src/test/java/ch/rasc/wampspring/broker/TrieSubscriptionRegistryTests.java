@@ -0,0 +1,155 @@
+/**
+ * Copyright 2014-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ch.rasc.wampspring.broker;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+import org.springframework.util.AntPathMatcher;
+
+public class TrieSubscriptionRegistryTests
+		extends AbstractSubscriptionRegistryTests<TrieSubscriptionRegistry> {
+
+	@Override
+	protected TrieSubscriptionRegistry createRegistry() {
+		return new TrieSubscriptionRegistry(new AntPathMatcher());
+	}
+
+	@Test
+	public void registerSubscriptionWithDoubleWildcard() {
+		this.registry.registerSubscription(subscribeMessage("sess1", "/foo/**/1"));
+		this.registry.registerSubscription(subscribeMessage("sess2", "/foo/**"));
+		this.registry.registerSubscription(subscribeMessage("sess3", "/**/test/1"));
+
+		assertThat(this.registry.findSubscriptions(message("/foo/1"))).hasSize(2)
+				.contains("sess1", "sess2");
+		assertThat(this.registry.findSubscriptions(message("/foo/middle/test/1")))
+				.hasSize(3).contains("sess1", "sess2", "sess3");
+		assertThat(this.registry.findSubscriptions(message("/foo"))).hasSize(1)
+				.contains("sess2");
+		assertThat(this.registry.findSubscriptions(message("/bar/test/1"))).hasSize(1)
+				.contains("sess3");
+		assertThat(this.registry.findSubscriptions(message("/bar/test/2"))).isEmpty();
+
+		this.registry.unregisterSubscription(unsubscribeMessage("sess2", "/foo/**"));
+		assertThat(this.registry.findSubscriptions(message("/foo/1"))).hasSize(1)
+				.contains("sess1");
+	}
+
+	@Test
+	public void registerSubscriptionWithSegmentPatterns() {
+		this.registry.registerSubscription(subscribeMessage("sess1", "/fo?"));
+		this.registry.registerSubscription(subscribeMessage("sess2", "/b*"));
+		this.registry.registerSubscription(subscribeMessage("sess3", "/topic/{id}"));
+
+		assertThat(this.registry.findSubscriptions(message("/foo"))).hasSize(1)
+				.contains("sess1");
+		assertThat(this.registry.findSubscriptions(message("/bar"))).hasSize(1)
+				.contains("sess2");
+		assertThat(this.registry.findSubscriptions(message("/topic/12"))).hasSize(1)
+				.contains("sess3");
+		assertThat(this.registry.findSubscriptions(message("/fooo"))).isEmpty();
+		assertThat(this.registry.findSubscriptions(message("/topic/12/13"))).isEmpty();
+	}
+
+	@Test
+	public void literalSubscriptionRespectsSeparators() {
+		this.registry.registerSubscription(subscribeMessage("sess1", "/foo/bar"));
+
+		assertThat(this.registry.findSubscriptions(message("/foo/bar"))).hasSize(1)
+				.contains("sess1");
+		assertThat(this.registry.findSubscriptions(message("foo/bar"))).isEmpty();
+		assertThat(this.registry.findSubscriptions(message("/foo/bar/"))).isEmpty();
+		assertThat(this.registry.findSubscriptions(message("/foo"))).isEmpty();
+	}
+
+	@Test
+	public void unregisterSessionPrunesTrie() {
+		this.registry.registerSubscription(subscribeMessage("sess1", "/foo/bar"));
+		this.registry.registerSubscription(subscribeMessage("sess1", "/foo/*"));
+		assertThat(this.registry.hasSubscriptions()).isTrue();
+
+		this.registry.unregisterSession("sess1");
+		assertThat(this.registry.hasSubscriptions()).isFalse();
+		assertThat(this.registry.findSubscriptions(message("/foo/bar"))).isEmpty();
+	}
+
+	@Test
+	public void findSubscriptionsReturnsSessionIdSet() {
+		this.registry.registerSubscription(subscribeMessage("sess1", "/foo/bar"));
+		this.registry.registerSubscription(subscribeMessage("sess2", "/foo/*"));
+		this.registry.registerSubscription(subscribeMessage("sess3", "/foo/**"));
+
+		Set<String> sessionIds = this.registry.findSubscriptions(message("/foo/bar"));
+		assertThat(sessionIds).isInstanceOf(SessionIdSet.class)
+				.containsOnly("sess1", "sess2", "sess3");
+		assertThat(((SessionIdSet) sessionIds).filter(null, Arrays.asList("sess2")))
+				.containsOnly("sess1", "sess3");
+	}
+
+	@Test
+	public void concurrentSubscriptionsWhilePruning() throws InterruptedException {
+		final int sessions = 8;
+		final CountDownLatch start = new CountDownLatch(1);
+		List<Thread> threads = new ArrayList<>();
+		for (int i = 0; i < sessions; i++) {
+			final String sessionId = "sess" + i;
+			Thread thread = new Thread(() -> {
+				try {
+					start.await();
+				}
+				catch (InterruptedException e) {
+					return;
+				}
+				// every unsubscribe prunes the nodes the other threads walk through
+				for (int j = 0; j < 500; j++) {
+					this.registry.registerSubscription(
+							subscribeMessage(sessionId, "/a/b/" + sessionId + "/c"));
+					this.registry.registerSubscription(
+							subscribeMessage(sessionId, "/a/*/" + sessionId + "/**"));
+					this.registry.unregisterSession(sessionId);
+				}
+				this.registry.registerSubscription(
+						subscribeMessage(sessionId, "/a/b/" + sessionId + "/c"));
+				this.registry.registerSubscription(
+						subscribeMessage(sessionId, "/a/*/" + sessionId + "/**"));
+			});
+			threads.add(thread);
+			thread.start();
+		}
+		start.countDown();
+		for (Thread thread : threads) {
+			thread.join();
+		}
+
+		for (int i = 0; i < sessions; i++) {
+			assertThat(this.registry.findSubscriptions(message("/a/b/sess" + i + "/c")))
+					.containsOnly("sess" + i);
+			assertThat(this.registry.findSubscriptions(message("/a/x/sess" + i + "/y")))
+					.containsOnly("sess" + i);
+			this.registry.unregisterSession("sess" + i);
+		}
+		assertThat(this.registry.hasSubscriptions()).isFalse();
+		assertThat(this.registry.findSubscriptions(message("/a/b/sess0/c"))).isEmpty();
+	}
+
+}
@@ -0,0 +1,171 @@
+/**
+ * Copyright 2014-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ch.rasc.wampspring.config;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.junit.Test;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageHandler;
+import org.springframework.messaging.MessagingException;
+import org.springframework.messaging.support.ExecutorSubscribableChannel;
+import org.springframework.messaging.support.MessageBuilder;
+
+import ch.rasc.wampspring.message.WampMessageHeader;
+
+public class InboundMessageQueuesTest {
+
+	private final List<Runnable> tasks = new ArrayList<>();
+
+	private boolean rejectTasks = false;
+
+	private final Executor executor = new Executor() {
+		@Override
+		public void execute(Runnable command) {
+			if (InboundMessageQueuesTest.this.rejectTasks) {
+				throw new RejectedExecutionException();
+			}
+			InboundMessageQueuesTest.this.tasks.add(command);
+		}
+	};
+
+	private final List<String> handled = new ArrayList<>();
+
+	private final InboundMessageQueues queues = new InboundMessageQueues(this.executor);
+
+	private final ExecutorSubscribableChannel channel = new ExecutorSubscribableChannel(
+			this.queues);
+
+	public InboundMessageQueuesTest() {
+		this.channel.subscribe(new MessageHandler() {
+			@Override
+			public void handleMessage(Message<?> message) throws MessagingException {
+				String payload = (String) message.getPayload();
+				if (payload.startsWith("fail")) {
+					throw new IllegalStateException(payload);
+				}
+				InboundMessageQueuesTest.this.handled.add(payload);
+			}
+		});
+	}
+
+	@Test
+	public void handlesMessagesOfOneSessionInOrder() {
+		this.channel.send(message("ws1", "1"));
+		this.channel.send(message("ws1", "2"));
+		this.channel.send(message("ws1", "3"));
+		assertThat(this.tasks).hasSize(1);
+
+		runTasks();
+		assertThat(this.handled).containsExactly("1", "2", "3");
+		assertThat(this.queues.getQueueCount()).isEqualTo(0);
+	}
+
+	@Test
+	public void sessionsTakeTurns() {
+		for (int i = 0; i < 40; i++) {
+			this.channel.send(message("ws1", "a" + i));
+		}
+		this.channel.send(message("ws2", "b"));
+		assertThat(this.tasks).hasSize(2);
+
+		// the first batch of ws1, then ws2, then the rest of ws1
+		this.tasks.remove(0).run();
+		assertThat(this.handled).hasSize(32);
+		runTasks();
+		assertThat(this.handled.get(32)).isEqualTo("b");
+		assertThat(this.handled).hasSize(41).endsWith("a39");
+	}
+
+	@Test
+	public void failedMessageDoesNotBlockSession() {
+		this.channel.send(message("ws1", "1"));
+		this.channel.send(message("ws1", "fail"));
+		this.channel.send(message("ws1", "2"));
+
+		runTasks();
+		assertThat(this.handled).containsExactly("1", "2");
+
+		this.channel.send(message("ws1", "3"));
+		runTasks();
+		assertThat(this.handled).containsExactly("1", "2", "3");
+	}
+
+	@Test
+	public void rejectedScheduleHandlesMessagesInCurrentThread() {
+		this.rejectTasks = true;
+		this.channel.send(message("ws1", "1"));
+		this.channel.send(message("ws1", "2"));
+		assertThat(this.handled).containsExactly("1", "2");
+		assertThat(this.tasks).isEmpty();
+		assertThat(this.queues.getQueueCount()).isEqualTo(0);
+
+		this.rejectTasks = false;
+		this.channel.send(message("ws1", "3"));
+		assertThat(this.tasks).hasSize(1);
+		runTasks();
+		assertThat(this.handled).containsExactly("1", "2", "3");
+	}
+
+	@Test
+	public void rejectedRescheduleHandlesRemainingMessages() {
+		for (int i = 0; i < 40; i++) {
+			this.channel.send(message("ws1", "a" + i));
+		}
+		assertThat(this.tasks).hasSize(1);
+
+		this.rejectTasks = true;
+		this.tasks.remove(0).run();
+		assertThat(this.handled).hasSize(40).endsWith("a39");
+		assertThat(this.tasks).isEmpty();
+		assertThat(this.queues.getQueueCount()).isEqualTo(0);
+
+		this.rejectTasks = false;
+		this.channel.send(message("ws1", "b"));
+		runTasks();
+		assertThat(this.handled).hasSize(41).endsWith("b");
+	}
+
+	@Test
+	public void messagesWithoutSessionAreNotQueued() {
+		this.channel.send(MessageBuilder.withPayload("1").build());
+		this.channel.send(MessageBuilder.withPayload("2").build());
+		assertThat(this.tasks).hasSize(2);
+		assertThat(this.queues.getQueueCount()).isEqualTo(0);
+
+		runTasks();
+		assertThat(this.handled).containsExactly("1", "2");
+	}
+
+	private void runTasks() {
+		while (!this.tasks.isEmpty()) {
+			this.tasks.remove(0).run();
+		}
+	}
+
+	private static Message<String> message(String webSocketSessionId, String payload) {
+		return MessageBuilder.withPayload(payload)
+				.setHeader(WampMessageHeader.WEBSOCKET_SESSION_ID.name(),
+						webSocketSessionId)
+				.build();
+	}
+
+}
@@ -0,0 +1,207 @@
+/**
+ * Copyright 2014-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ch.rasc.wampspring.config;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketSession;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.databind.MappingJsonFactory;
+
+import ch.rasc.wampspring.message.CallMessage;
+import ch.rasc.wampspring.message.CallResultMessage;
+import ch.rasc.wampspring.message.EventMessage;
+
+public class OutboundMessageQueuesTest {
+
+	private final JsonFactory jsonFactory = new MappingJsonFactory();
+
+	private final List<Runnable> tasks = new ArrayList<>();
+
+	private boolean rejectTasks = false;
+
+	private final Executor executor = new Executor() {
+		@Override
+		public void execute(Runnable command) {
+			if (OutboundMessageQueuesTest.this.rejectTasks) {
+				throw new RejectedExecutionException();
+			}
+			OutboundMessageQueuesTest.this.tasks.add(command);
+		}
+	};
+
+	private WampSubProtocolHandler protocolHandler;
+
+	private WebSocketSession session;
+
+	@Before
+	public void setup() {
+		this.protocolHandler = new WampSubProtocolHandler(this.jsonFactory);
+		this.session = Mockito.mock(WebSocketSession.class);
+		Mockito.when(this.session.getId()).thenReturn("ws1");
+		Mockito.when(this.session.isOpen()).thenReturn(true);
+	}
+
+	@Test
+	public void sendsInOrder() throws IOException {
+		OutboundMessageQueues queues = new OutboundMessageQueues(this.protocolHandler, 10,
+				OutboundOverflowPolicy.DROP_NEWEST, this.executor);
+		queues.enqueue(this.session, event("1"));
+		queues.enqueue(this.session, event("2"));
+		assertThat(this.tasks).hasSize(1);
+
+		runTasks();
+		assertThat(sentPayloads()).containsExactly(eventJson("1"), eventJson("2"));
+	}
+
+	@Test
+	public void dropOldestEvent() throws IOException {
+		OutboundMessageQueues queues = new OutboundMessageQueues(this.protocolHandler, 2,
+				OutboundOverflowPolicy.DROP_OLDEST_EVENT, this.executor);
+		queues.enqueue(this.session, event("1"));
+		queues.enqueue(this.session, event("2"));
+		queues.enqueue(this.session, event("3"));
+
+		runTasks();
+		assertThat(sentPayloads()).containsExactly(eventJson("2"), eventJson("3"));
+	}
+
+	@Test
+	public void dropNewest() throws IOException {
+		OutboundMessageQueues queues = new OutboundMessageQueues(this.protocolHandler, 2,
+				OutboundOverflowPolicy.DROP_NEWEST, this.executor);
+		queues.enqueue(this.session, event("1"));
+		queues.enqueue(this.session, event("2"));
+		queues.enqueue(this.session, event("3"));
+
+		runTasks();
+		assertThat(sentPayloads()).containsExactly(eventJson("1"), eventJson("2"));
+	}
+
+	@Test
+	public void closeSession() throws IOException {
+		OutboundMessageQueues queues = new OutboundMessageQueues(this.protocolHandler, 1,
+				OutboundOverflowPolicy.CLOSE_SESSION, this.executor);
+		queues.enqueue(this.session, event("1"));
+		queues.enqueue(this.session, event("2"));
+
+		Mockito.verify(this.session).close(CloseStatus.SESSION_NOT_RELIABLE);
+		runTasks();
+		Mockito.verify(this.session, Mockito.never())
+				.sendMessage(Mockito.any(TextMessage.class));
+	}
+
+	@Test
+	public void callResultsAreNeverDropped() throws IOException {
+		OutboundMessageQueues queues = new OutboundMessageQueues(this.protocolHandler, 1,
+				OutboundOverflowPolicy.DROP_NEWEST, this.executor);
+		CallMessage callMessage = new CallMessage("callId", "procURI");
+		CallResultMessage callResult = new CallResultMessage(callMessage, "result");
+		queues.enqueue(this.session, event("1"));
+		queues.enqueue(this.session, callResult);
+		queues.enqueue(this.session, event("2"));
+
+		runTasks();
+		assertThat(sentPayloads()).containsExactly(eventJson("1"),
+				callResult.toJson(this.jsonFactory));
+	}
+
+	@Test
+	public void removedQueueIsDiscarded() throws IOException {
+		OutboundMessageQueues queues = new OutboundMessageQueues(this.protocolHandler, 10,
+				OutboundOverflowPolicy.DROP_NEWEST, this.executor);
+		queues.enqueue(this.session, event("1"));
+		queues.remove("ws1");
+
+		runTasks();
+		Mockito.verify(this.session, Mockito.never())
+				.sendMessage(Mockito.any(TextMessage.class));
+	}
+
+	@Test
+	public void rejectedScheduleSendsInCurrentThread() throws IOException {
+		OutboundMessageQueues queues = new OutboundMessageQueues(this.protocolHandler, 10,
+				OutboundOverflowPolicy.DROP_NEWEST, this.executor);
+		this.rejectTasks = true;
+		queues.enqueue(this.session, event("1"));
+		assertThat(sentPayloads()).containsExactly(eventJson("1"));
+
+		// the queue is not stuck as scheduled
+		this.rejectTasks = false;
+		queues.enqueue(this.session, event("2"));
+		assertThat(this.tasks).hasSize(1);
+		runTasks();
+		assertThat(sentPayloads()).containsExactly(eventJson("1"), eventJson("2"));
+	}
+
+	@Test
+	public void rejectedRescheduleSendsRemainingMessages() throws IOException {
+		OutboundMessageQueues queues = new OutboundMessageQueues(this.protocolHandler,
+				100, OutboundOverflowPolicy.DROP_NEWEST, this.executor);
+		for (int i = 0; i < 40; i++) {
+			queues.enqueue(this.session, event(String.valueOf(i)));
+		}
+		assertThat(this.tasks).hasSize(1);
+
+		this.rejectTasks = true;
+		this.tasks.remove(0).run();
+		assertThat(sentPayloads()).hasSize(40).endsWith(eventJson("39"));
+		assertThat(this.tasks).isEmpty();
+
+		this.rejectTasks = false;
+		queues.enqueue(this.session, event("40"));
+		runTasks();
+		assertThat(sentPayloads()).hasSize(41).endsWith(eventJson("40"));
+	}
+
+	private void runTasks() {
+		while (!this.tasks.isEmpty()) {
+			this.tasks.remove(0).run();
+		}
+	}
+
+	private List<String> sentPayloads() throws IOException {
+		ArgumentCaptor<TextMessage> captor = ArgumentCaptor.forClass(TextMessage.class);
+		Mockito.verify(this.session, Mockito.atLeastOnce()).sendMessage(captor.capture());
+		List<String> payloads = new ArrayList<>();
+		for (TextMessage message : captor.getAllValues()) {
+			payloads.add(message.getPayload());
+		}
+		return payloads;
+	}
+
+	private static EventMessage event(String payload) {
+		return new EventMessage("topic", payload);
+	}
+
+	private String eventJson(String payload) throws IOException {
+		return event(payload).toJson(this.jsonFactory);
+	}
+
+}
@@ -0,0 +1,101 @@
+/**
+ * Copyright 2014-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ch.rasc.wampspring.config;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.springframework.messaging.SubscribableChannel;
+import org.springframework.messaging.support.ExecutorSubscribableChannel;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.util.AntPathMatcher;
+
+import ch.rasc.wampspring.broker.DefaultSubscriptionRegistry;
+import ch.rasc.wampspring.broker.SimpleBrokerMessageHandler;
+import ch.rasc.wampspring.message.CallMessage;
+import ch.rasc.wampspring.message.EventMessage;
+import ch.rasc.wampspring.message.WampMessageType;
+
+public class WampMessageBrokerStatsTest {
+
+	@Test
+	public void countsMessagesByType() throws InterruptedException {
+		final ExecutorSubscribableChannel inboundChannel = new ExecutorSubscribableChannel();
+		ExecutorSubscribableChannel outboundChannel = new ExecutorSubscribableChannel();
+
+		WampMessageBrokerStats stats = new WampMessageBrokerStats();
+		stats.setClientInboundChannel(inboundChannel);
+		stats.setClientOutboundChannel(outboundChannel);
+		assertThat(stats.getClientInboundChannelStatsInfo()).isEqualTo("no messages");
+		assertThat(stats.getBrokerChannelStatsInfo()).isEqualTo("null");
+
+		int threads = 4;
+		final CountDownLatch latch = new CountDownLatch(threads);
+		for (int i = 0; i < threads; i++) {
+			new Thread(() -> {
+				for (int j = 0; j < 1000; j++) {
+					inboundChannel.send(new CallMessage("callId", "procURI"));
+				}
+				latch.countDown();
+			}).start();
+		}
+		assertThat(latch.await(10, TimeUnit.SECONDS)).isTrue();
+		outboundChannel.send(new EventMessage("topic", "event"));
+		outboundChannel.send(new EventMessage("topic", "event"));
+
+		assertThat(stats.getClientInboundMessageCount(WampMessageType.CALL))
+				.isEqualTo(4000);
+		assertThat(stats.getClientInboundMessageCount(WampMessageType.EVENT)).isZero();
+		assertThat(stats.getClientOutboundMessageCount(WampMessageType.EVENT))
+				.isEqualTo(2);
+		assertThat(stats.getBrokerMessageCount(WampMessageType.EVENT)).isZero();
+		assertThat(stats.getClientInboundChannelStatsInfo()).isEqualTo("CALL = 4000");
+		assertThat(stats.getClientOutboundChannelStatsInfo()).isEqualTo("EVENT = 2");
+	}
+
+	@Test
+	public void executorAndBrokerStats() {
+		ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+		executor.afterPropertiesSet();
+		SubscribableChannel channel = new ExecutorSubscribableChannel();
+		SimpleBrokerMessageHandler brokerMessageHandler = new SimpleBrokerMessageHandler(
+				channel, channel, channel,
+				new DefaultSubscriptionRegistry(new AntPathMatcher()),
+				WampMessageSelectors.ACCEPT_ALL);
+
+		WampMessageBrokerStats stats = new WampMessageBrokerStats();
+		stats.setInboundChannelExecutor(executor);
+		stats.setOutboundChannelExecutor(Mockito.mock(Executor.class));
+		stats.setBrokerMessageHandler(brokerMessageHandler);
+		try {
+			assertThat(stats.getClientInboundExecutorStatsInfo()).isEqualTo(
+					"pool size = 0, active threads = 0, queued tasks = 0, completed tasks = 0");
+			assertThat(stats.getClientOutboundExecutorStatsInfo()).isEqualTo("unknown");
+			assertThat(stats.getClientOutboundQueueExecutorStatsInfo()).isEqualTo("null");
+			assertThat(stats.getBrokerStatsInfo()).startsWith("running = false");
+			assertThat(stats.toString()).contains("broker[running = false");
+		}
+		finally {
+			executor.shutdown();
+		}
+	}
+
+}
@@ -0,0 +1,112 @@
+/**
+ * Copyright 2014-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ch.rasc.wampspring.config;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.springframework.web.socket.WebSocketSession;
+
+public class WampSessionTest {
+
+	private WampSession wampSession;
+
+	@Before
+	public void setup() {
+		WebSocketSession session = Mockito.mock(WebSocketSession.class);
+		Mockito.when(session.getId()).thenReturn("ws1");
+		Mockito.when(session.getAttributes())
+				.thenReturn(new ConcurrentHashMap<String, Object>());
+		this.wampSession = new WampSession(session);
+	}
+
+	@Test
+	public void withoutPrefixes() {
+		assertThat(this.wampSession.hasPrefixes()).isFalse();
+		assertThat(this.wampSession.expandCurie("calc:add")).isEqualTo("calc:add");
+		assertThat(this.wampSession.expandCurie(null)).isNull();
+	}
+
+	@Test
+	public void expandCurie() {
+		this.wampSession.addPrefix("calc", "http://example.com/simple/calc#");
+		this.wampSession.addPrefix("c", "http://example.com/c#");
+		assertThat(this.wampSession.hasPrefixes()).isTrue();
+
+		assertThat(this.wampSession.expandCurie("calc:add"))
+				.isEqualTo("http://example.com/simple/calc#add");
+		assertThat(this.wampSession.expandCurie("c:add"))
+				.isEqualTo("http://example.com/c#add");
+		assertThat(this.wampSession.expandCurie(new String("calc:add")))
+				.isSameAs(this.wampSession.expandCurie("calc:add"));
+	}
+
+	@Test
+	public void otherUrisAreUnchanged() {
+		this.wampSession.addPrefix("calc", "http://example.com/simple/calc#");
+		this.wampSession.addPrefix("http", "http://example.com/http#");
+
+		assertThat(this.wampSession.expandCurie("other:add")).isEqualTo("other:add");
+		assertThat(this.wampSession.expandCurie("calcx:add")).isEqualTo("calcx:add");
+		assertThat(this.wampSession.expandCurie("calc:")).isEqualTo("calc:");
+		assertThat(this.wampSession.expandCurie(":add")).isEqualTo(":add");
+		assertThat(this.wampSession.expandCurie("add")).isEqualTo("add");
+		assertThat(this.wampSession.expandCurie("http://example.com:8080/add"))
+				.isEqualTo("http://example.com:8080/add");
+	}
+
+	@Test
+	public void compactUri() {
+		assertThat(this.wampSession.compactUri("http://example.com/simple/calc#add"))
+				.isEqualTo("http://example.com/simple/calc#add");
+
+		this.wampSession.addPrefix("simple", "http://example.com/simple/");
+		this.wampSession.addPrefix("calc", "http://example.com/simple/calc#");
+
+		// the longest prefix wins
+		assertThat(this.wampSession.compactUri("http://example.com/simple/calc#add"))
+				.isEqualTo("calc:add");
+		assertThat(this.wampSession.compactUri("http://example.com/simple/other"))
+				.isEqualTo("simple:other");
+		assertThat(this.wampSession.compactUri("http://example.com/simple/calc#"))
+				.isEqualTo("simple:calc#");
+		assertThat(this.wampSession.compactUri("http://example.com/other"))
+				.isEqualTo("http://example.com/other");
+		// the client would not expand a CURIE with two colons
+		assertThat(this.wampSession.compactUri("http://example.com/simple/a:b"))
+				.isEqualTo("http://example.com/simple/a:b");
+
+		String uri = "http://example.com/simple/calc#add";
+		assertThat(this.wampSession.expandCurie(this.wampSession.compactUri(uri)))
+				.isEqualTo(uri);
+	}
+
+	@Test
+	public void redefinePrefix() {
+		this.wampSession.addPrefix("calc", "http://example.com/simple/calc#");
+		assertThat(this.wampSession.expandCurie("calc:add"))
+				.isEqualTo("http://example.com/simple/calc#add");
+
+		this.wampSession.addPrefix("calc", "http://example.com/calc#");
+		assertThat(this.wampSession.expandCurie("calc:add"))
+				.isEqualTo("http://example.com/calc#add");
+	}
+
+}
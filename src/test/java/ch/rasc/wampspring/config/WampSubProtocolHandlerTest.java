@@ -0,0 +1,231 @@
+/**
+ * Copyright 2014-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ch.rasc.wampspring.config;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketSession;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.databind.MappingJsonFactory;
+
+import ch.rasc.wampspring.message.EventMessage;
+import ch.rasc.wampspring.message.PublishMessage;
+import ch.rasc.wampspring.message.SubscribeMessage;
+import ch.rasc.wampspring.message.TopicTable;
+import ch.rasc.wampspring.message.UnsubscribeMessage;
+import ch.rasc.wampspring.message.WampMessage;
+
+public class WampSubProtocolHandlerTest {
+
+	private final JsonFactory jsonFactory = new MappingJsonFactory();
+
+	private final WampSubProtocolHandler protocolHandler = new WampSubProtocolHandler(
+			this.jsonFactory);
+
+	private WebSocketSession session;
+
+	private MessageChannel channel;
+
+	@Before
+	public void setup() {
+		this.session = Mockito.mock(WebSocketSession.class);
+		Mockito.when(this.session.getId()).thenReturn("ws1");
+		Mockito.when(this.session.getAttributes())
+				.thenReturn(new ConcurrentHashMap<String, Object>());
+		this.channel = Mockito.mock(MessageChannel.class);
+		Mockito.when(this.channel.send(Mockito.any(WampMessage.class))).thenReturn(true);
+	}
+
+	@Test
+	public void oneWampSessionPerWebSocketSession() {
+		this.protocolHandler.afterSessionStarted(this.session, this.channel);
+		this.protocolHandler.handleMessageFromClient(this.session,
+				new TextMessage("[1,\"calc\",\"http://example.com/simple/calc#\"]"),
+				this.channel);
+		this.protocolHandler.handleMessageFromClient(this.session,
+				new TextMessage("[5,\"calc:topic\"]"), this.channel);
+		this.protocolHandler.handleMessageFromClient(this.session,
+				new TextMessage("[5,\"calc:topic\"]"), this.channel);
+		this.protocolHandler.afterSessionEnded(this.session, CloseStatus.NORMAL,
+				this.channel);
+
+		ArgumentCaptor<WampMessage> captor = ArgumentCaptor.forClass(WampMessage.class);
+		Mockito.verify(this.channel, Mockito.times(4)).send(captor.capture());
+		List<WampMessage> messages = captor.getAllValues();
+
+		WampSession wampSession = messages.get(0).getWampSession();
+		assertThat(wampSession.getPrefix("calc"))
+				.isEqualTo("http://example.com/simple/calc#");
+		assertThat(messages.get(1).getWampSession()).isSameAs(wampSession);
+		assertThat(messages.get(1).getDestination())
+				.isEqualTo("http://example.com/simple/calc#topic");
+		assertThat(messages.get(2).getDestination())
+				.isSameAs(messages.get(1).getDestination());
+
+		assertThat(((UnsubscribeMessage) messages.get(3)).isCleanup()).isTrue();
+		assertThat(messages.get(3).getWampSession()).isSameAs(wampSession);
+		assertThat(wampSession.isSessionCompleted()).isTrue();
+	}
+
+	@Test
+	public void curieCompression() throws IOException {
+		this.session.getAttributes().put(WampSession.CURIE_COMPRESSION_NAME,
+				Boolean.TRUE);
+		Mockito.when(this.session.isOpen()).thenReturn(true);
+		this.protocolHandler.afterSessionStarted(this.session, this.channel);
+		this.protocolHandler.handleMessageFromClient(this.session,
+				new TextMessage("[1,\"calc\",\"http://example.com/simple/calc#\"]"),
+				this.channel);
+
+		EventMessage event = new EventMessage("http://example.com/simple/calc#topic",
+				"value");
+		this.protocolHandler.handleMessageToClient(this.session, event);
+		this.protocolHandler.handleMessageToClient(this.session,
+				new EventMessage("http://example.com/other", "value"));
+
+		assertThat(sentPayloads()).containsExactly(
+				"[8,\"calc:topic\",\"value\"]",
+				"[8,\"http://example.com/other\",\"value\"]");
+		// the shared frame of the event still contains the full topicURI
+		assertThat(event.toTextMessage(this.jsonFactory).getPayload())
+				.isEqualTo("[8,\"http://example.com/simple/calc#topic\",\"value\"]");
+	}
+
+	@Test
+	public void noCurieCompressionByDefault() throws IOException {
+		this.protocolHandler.afterSessionStarted(this.session, this.channel);
+		this.protocolHandler.handleMessageFromClient(this.session,
+				new TextMessage("[1,\"calc\",\"http://example.com/simple/calc#\"]"),
+				this.channel);
+
+		this.protocolHandler.handleMessageToClient(this.session,
+				new EventMessage("http://example.com/simple/calc#topic", "value"));
+
+		assertThat(sentPayloads()).containsExactly(
+				"[8,\"http://example.com/simple/calc#topic\",\"value\"]");
+	}
+
+	@Test
+	public void sessionStateIsNotStoredInAttributes() {
+		this.protocolHandler.afterSessionStarted(this.session, this.channel);
+		this.protocolHandler.handleMessageFromClient(this.session,
+				new TextMessage("[5,\"topic\"]"), this.channel);
+
+		ArgumentCaptor<WampMessage> captor = ArgumentCaptor.forClass(WampMessage.class);
+		Mockito.verify(this.channel).send(captor.capture());
+		WampSession wampSession = captor.getValue().getWampSession();
+		wampSession.setAuthKey("key");
+		wampSession.setSignature("signature");
+
+		assertThat(wampSession.isAuthenticated()).isTrue();
+		assertThat(this.session.getAttributes()).containsOnlyKeys(
+				WampSession.WAMP_SESSION_NAME);
+		assertThat(WampSession.from(this.session)).isSameAs(wampSession);
+	}
+
+	@Test
+	public void webSocketSessionVariantsUseTheWampSessionOfTheSession()
+			throws IOException {
+		this.protocolHandler.afterSessionStarted(this.session, this.channel);
+		this.protocolHandler.handleMessageFromClient(this.session,
+				new TextMessage("[1,\"calc\",\"http://example.com/simple/calc#\"]"),
+				this.channel);
+
+		ArgumentCaptor<WampMessage> captor = ArgumentCaptor.forClass(WampMessage.class);
+		Mockito.verify(this.channel).send(captor.capture());
+		WampSession wampSession = captor.getValue().getWampSession();
+		wampSession.setAuthKey("key");
+		wampSession.setSignature("signature");
+
+		WampMessage message = WampMessage.fromJson(this.session, this.jsonFactory,
+				"[5,\"calc:topic\"]");
+		assertThat(message.getWampSession()).isSameAs(wampSession);
+		assertThat(message.getWampSession().isAuthenticated()).isTrue();
+		assertThat(message.getDestination())
+				.isEqualTo("http://example.com/simple/calc#topic");
+
+		UnsubscribeMessage cleanupMessage = UnsubscribeMessage
+				.createCleanupMessage(this.session);
+		assertThat(cleanupMessage.getWampSession()).isSameAs(wampSession);
+	}
+
+	@Test
+	public void noNewWampSessionAfterSessionEnded() {
+		this.protocolHandler.afterSessionStarted(this.session, this.channel);
+		this.protocolHandler.afterSessionEnded(this.session, CloseStatus.NORMAL,
+				this.channel);
+		// a late frame of the closed session
+		this.protocolHandler.handleMessageFromClient(this.session,
+				new TextMessage("[5,\"topic\"]"), this.channel);
+
+		ArgumentCaptor<WampMessage> captor = ArgumentCaptor.forClass(WampMessage.class);
+		Mockito.verify(this.channel, Mockito.times(2)).send(captor.capture());
+		List<WampMessage> messages = captor.getAllValues();
+		assertThat(messages.get(1).getWampSession())
+				.isSameAs(messages.get(0).getWampSession());
+		assertThat(messages.get(1).getWampSession().isSessionCompleted()).isTrue();
+	}
+
+	@Test
+	public void decodedMessagesAreCanonicalized() {
+		TopicTable topicTable = new TopicTable();
+		String topicURI = topicTable.acquire("http://example.com/simple/calc#topic")
+				.getUri();
+		this.protocolHandler.setTopicTable(topicTable);
+		this.protocolHandler.afterSessionStarted(this.session, this.channel);
+		this.protocolHandler.handleMessageFromClient(this.session,
+				new TextMessage("[1,\"calc\",\"http://example.com/simple/calc#\"]"),
+				this.channel);
+		this.protocolHandler.handleMessageFromClient(this.session,
+				new TextMessage("[7,\"calc:topic\",1]"), this.channel);
+		this.protocolHandler.handleMessageFromClient(this.session,
+				new TextMessage("[5,\"http://example.com/other\"]"), this.channel);
+
+		ArgumentCaptor<WampMessage> captor = ArgumentCaptor.forClass(WampMessage.class);
+		Mockito.verify(this.channel, Mockito.times(3)).send(captor.capture());
+		List<WampMessage> messages = captor.getAllValues();
+		assertThat(((PublishMessage) messages.get(1)).getTopicURI()).isSameAs(topicURI);
+		assertThat(((SubscribeMessage) messages.get(2)).getTopicURI())
+				.isEqualTo("http://example.com/other");
+	}
+
+	private List<String> sentPayloads() throws IOException {
+		ArgumentCaptor<TextMessage> captor = ArgumentCaptor.forClass(TextMessage.class);
+		Mockito.verify(this.session, Mockito.atLeastOnce()).sendMessage(captor.capture());
+		List<String> payloads = new ArrayList<>();
+		for (TextMessage message : captor.getAllValues()) {
+			// skip the WELCOME message
+			if (!message.getPayload().startsWith("[0,")) {
+				payloads.add(message.getPayload());
+			}
+		}
+		return payloads;
+	}
+
+}
@@ -19,7 +19,9 @@ import static org.assertj.core.api.Assertions.assertThat;
 
 import java.io.IOException;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import org.assertj.core.data.MapEntry;
@@ -149,4 +151,20 @@ public class CallMessageTest extends BaseMessageTest {
 				MapEntry.entry("modified", "2012-03-29T10:29:16.625Z"));
 
 	}
+	@Test
+	public void deferredArgumentsTest() throws IOException {
+		String json = "[2,\"id\",\"proc\",\"one\",[1,2],{\"x\":[true]},3]";
+		CallMessage callMessage = WampMessage.fromJson(getJsonFactory(), json);
+		assertThat(callMessage.toString()).contains("[one, [1,2], {\"x\":[true]}, 3]");
+
+		List<Object> arguments = callMessage.getArguments();
+		assertThat(arguments).hasSize(4);
+		assertThat(arguments.get(0)).isEqualTo("one");
+		assertThat(arguments.get(1)).isEqualTo(Arrays.asList(1, 2));
+		assertThat(arguments.get(2))
+				.isEqualTo(Collections.singletonMap("x", Arrays.asList(true)));
+		assertThat(arguments.get(3)).isEqualTo(3);
+		assertThat(callMessage.getArguments()).isSameAs(arguments);
+	}
+
 }
@@ -18,11 +18,13 @@ package ch.rasc.wampspring.message;
 import static org.assertj.core.api.Assertions.assertThat;
 
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 
 import org.assertj.core.data.MapEntry;
 import org.junit.Test;
+import org.springframework.web.socket.TextMessage;
 
 public class EventMessageTest extends BaseMessageTest {
 
@@ -119,4 +121,42 @@ public class EventMessageTest extends BaseMessageTest {
 		assertThat(copyOfMsg.getTopicURI()).isEqualTo("topicURI");
 		assertThat(copyOfMsg.getDestination()).isEqualTo("topicURI");
 	}
+
+	@Test
+	public void copiesShareEncodedFrameTest() throws IOException {
+		EventMessage eventMessage = new EventMessage("topicURI", "payload");
+		EventMessage copy1 = new EventMessage(eventMessage, "ws1");
+		EventMessage copy2 = new EventMessage(eventMessage, "ws2");
+
+		TextMessage frame = copy1.toTextMessage(getJsonFactory());
+		assertThat(frame.getPayload()).isEqualTo(
+				toJsonArray(WampMessageType.EVENT.getTypeId(), "topicURI", "payload"));
+		assertThat(copy2.toTextMessage(getJsonFactory())).isSameAs(frame);
+		assertThat(eventMessage.toTextMessage(getJsonFactory())).isSameAs(frame);
+
+		PublishMessage publishMessage = new PublishMessage("topicURI", "payload");
+		EventMessage fromPublish = new EventMessage(publishMessage, "ws1");
+		assertThat(fromPublish.toTextMessage(getJsonFactory())).isNotSameAs(frame);
+		assertThat(new EventMessage(fromPublish, "ws2").toTextMessage(getJsonFactory()))
+				.isSameAs(fromPublish.toTextMessage(getJsonFactory()));
+	}
+
+	@Test
+	public void publishedEventIsPassedThroughTest() throws IOException {
+		String json = "[7,\"topicURI\", { \"b\" : [1, 2.50],\"a\":null } ,true]";
+		PublishMessage publishMessage = WampMessage.fromJson(getJsonFactory(), json);
+		assertThat(publishMessage.getRawEvent()).isInstanceOf(DeferredJsonValue.class);
+
+		EventMessage eventMessage = new EventMessage(publishMessage, "ws1");
+		EventMessage copy = new EventMessage(eventMessage, "ws2");
+		// the event is not decoded and written exactly as it was published
+		String expected = "[8,\"topicURI\",{ \"b\" : [1, 2.50],\"a\":null }]";
+		assertThat(eventMessage.toJson(getJsonFactory())).isEqualTo(expected);
+		assertThat(copy.toJson(getJsonFactory())).isEqualTo(expected);
+
+		@SuppressWarnings("unchecked")
+		Map<String, Object> event = (Map<String, Object>) copy.getEvent();
+		assertThat(event).containsOnlyKeys("a", "b");
+		assertThat(event.get("b")).isEqualTo(Arrays.asList(1, 2.50));
+	}
 }
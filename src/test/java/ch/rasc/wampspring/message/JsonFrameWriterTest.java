@@ -0,0 +1,95 @@
+/**
+ * Copyright 2014-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ch.rasc.wampspring.message;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonSerializer;
+import com.fasterxml.jackson.databind.MappingJsonFactory;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.module.SimpleModule;
+
+public class JsonFrameWriterTest extends BaseMessageTest {
+
+	@Test
+	public void consecutiveMessages() throws IOException {
+		String first = new EventMessage("topic", Arrays.asList(1, 2)).toJson(getJsonFactory());
+		String second = new SubscribeMessage("topic2").toJson(getJsonFactory());
+		String third = new EventMessage("topic", "x").toJson(getJsonFactory());
+
+		assertThat(first).isEqualTo("[8,\"topic\",[1,2]]");
+		assertThat(second).isEqualTo("[5,\"topic2\"]");
+		assertThat(third).isEqualTo("[8,\"topic\",\"x\"]");
+	}
+
+	@Test
+	public void largeMessage() throws IOException {
+		char[] chars = new char[100_000];
+		Arrays.fill(chars, 'a');
+		String large = new String(chars);
+
+		String json = new EventMessage("topic", large).toJson(getJsonFactory());
+		assertThat(json).isEqualTo("[8,\"topic\",\"" + large + "\"]");
+		assertThat(new EventMessage("topic", 1).toJson(getJsonFactory()))
+				.isEqualTo("[8,\"topic\",1]");
+	}
+
+	@Test
+	public void failedMessageDoesNotCorruptNextMessage() throws IOException {
+		try {
+			new EventMessage("topic", new Object()).toJson(getJsonFactory());
+		}
+		catch (IOException e) {
+			// no serializer for Object
+		}
+		assertThat(new EventMessage("topic", 1).toJson(getJsonFactory()))
+				.isEqualTo("[8,\"topic\",1]");
+	}
+
+	@Test
+	public void differentFactories() throws IOException {
+		MappingJsonFactory otherFactory = new MappingJsonFactory(new ObjectMapper());
+		EventMessage eventMessage = new EventMessage("topic", 1);
+		assertThat(eventMessage.toJson(otherFactory)).isEqualTo("[8,\"topic\",1]");
+		assertThat(eventMessage.toJson(getJsonFactory())).isEqualTo("[8,\"topic\",1]");
+	}
+
+	@Test
+	public void nestedEncoding() throws IOException {
+		SimpleModule module = new SimpleModule();
+		module.addSerializer(EventMessage.class, new JsonSerializer<EventMessage>() {
+			@Override
+			public void serialize(EventMessage value, JsonGenerator gen,
+					SerializerProvider serializers) throws IOException {
+				gen.writeString(value.toJson(gen.getCodec().getFactory()));
+			}
+		});
+		MappingJsonFactory factory = new MappingJsonFactory(
+				new ObjectMapper().registerModule(module));
+
+		EventMessage inner = new EventMessage("inner", 1);
+		String json = new EventMessage("outer", inner).toJson(factory);
+		assertThat(json).isEqualTo("[8,\"outer\",\"[8,\\\"inner\\\",1]\"]");
+	}
+
+}
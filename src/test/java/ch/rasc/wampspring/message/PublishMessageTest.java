@@ -21,6 +21,7 @@ import java.io.IOException;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.TreeSet;
 
@@ -203,4 +204,20 @@ public class PublishMessageTest extends BaseMessageTest {
 		assertThat(publishMessage.getEligible()).containsExactly("NwtXQ8rdfPsy-ewS");
 
 	}
+	@SuppressWarnings("unchecked")
+	@Test
+	public void deferredEventTest() throws IOException {
+		String json = "[7,\"topic\",{\"a\":[1,{\"b\":\"}]\\\"\"}],\"c\":null},[\"ws1\"],[\"ws2\"]]";
+		PublishMessage publishMessage = WampMessage.fromJson(getJsonFactory(), json);
+		assertThat(publishMessage.toString()).contains("{\"a\":[1,{\"b\":\"}]\\\"\"}],\"c\":null}");
+		assertThat(publishMessage.getExclude()).containsOnly("ws1");
+		assertThat(publishMessage.getEligible()).containsOnly("ws2");
+
+		Map<String, Object> event = (Map<String, Object>) publishMessage.getEvent();
+		assertThat(event).containsOnlyKeys("a", "c");
+		assertThat((List<Object>) event.get("a")).hasSize(2).startsWith(1);
+		assertThat(publishMessage.getEvent()).isSameAs(event);
+		assertThat(publishMessage.getPayload()).isSameAs(event);
+	}
+
 }
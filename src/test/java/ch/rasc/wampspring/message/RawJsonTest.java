@@ -0,0 +1,71 @@
+/**
+ * Copyright 2014-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ch.rasc.wampspring.message;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+
+import org.junit.Test;
+
+public class RawJsonTest extends BaseMessageTest {
+
+	@Test
+	public void eventTest() throws IOException {
+		String json = "{\"price\": 1.10, \"symbol\":\"ABC\"}";
+		EventMessage eventMessage = new EventMessage("quotes", new RawJson(json));
+		assertThat(eventMessage.toJson(getJsonFactory()))
+				.isEqualTo("[8,\"quotes\"," + json + "]");
+
+		EventMessage copy = new EventMessage(eventMessage, "ws1");
+		assertThat(copy.toTextMessage(getJsonFactory()).getPayload())
+				.isEqualTo("[8,\"quotes\"," + json + "]");
+	}
+
+	@Test
+	public void bytesTest() throws IOException {
+		byte[] json = "[\"ä\",2]".getBytes(StandardCharsets.UTF_8);
+		EventMessage eventMessage = new EventMessage("topic", new RawJson(json));
+		assertThat(eventMessage.toJson(getJsonFactory()))
+				.isEqualTo("[8,\"topic\",[\"ä\",2]]");
+	}
+
+	@Test
+	public void nestedTest() throws IOException {
+		EventMessage eventMessage = new EventMessage("topic",
+				Collections.singletonMap("data", new RawJson("[1, 2]")));
+		assertThat(eventMessage.toJson(getJsonFactory()))
+				.isEqualTo("[8,\"topic\",{\"data\":[1, 2]}]");
+	}
+
+	@Test
+	public void publishTest() throws IOException {
+		PublishMessage publishMessage = new PublishMessage("topic", new RawJson("true"),
+				Boolean.TRUE);
+		assertThat(publishMessage.toJson(getJsonFactory()))
+				.isEqualTo("[7,\"topic\",true,true]");
+	}
+
+	@Test
+	public void equalsTest() {
+		assertThat(new RawJson("{}")).isEqualTo(new RawJson("{}"));
+		assertThat(new RawJson("{}")).isNotEqualTo(new RawJson("[]"));
+		assertThat(new RawJson("{}").toString()).isEqualTo("{}");
+	}
+
+}
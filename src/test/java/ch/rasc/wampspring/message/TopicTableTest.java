@@ -0,0 +1,135 @@
+/**
+ * Copyright 2014-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ch.rasc.wampspring.message;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+
+import org.junit.Test;
+import org.springframework.util.AntPathMatcher;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.databind.MappingJsonFactory;
+
+import ch.rasc.wampspring.broker.DefaultSubscriptionRegistry;
+import ch.rasc.wampspring.broker.SubscriptionRegistry;
+import ch.rasc.wampspring.broker.TrieSubscriptionRegistry;
+
+public class TopicTableTest {
+
+	private final JsonFactory jsonFactory = new MappingJsonFactory();
+
+	private final TopicTable topicTable = new TopicTable();
+
+	@Test
+	public void acquireAndRelease() {
+		String uri = "http://example.com/topicTableTest/acquire";
+		assertThat(this.topicTable.get(uri)).isNull();
+		assertThat(this.topicTable.canonicalize(uri)).isSameAs(uri);
+
+		Topic topic = this.topicTable.acquire(uri);
+		assertThat(this.topicTable.acquire(new String(uri))).isSameAs(topic);
+		assertThat(this.topicTable.canonicalize(new String(uri)))
+				.isSameAs(topic.getUri());
+		assertThat(this.topicTable.size()).isEqualTo(1);
+
+		this.topicTable.release(uri);
+		assertThat(this.topicTable.get(uri)).isSameAs(topic);
+		this.topicTable.release(uri);
+		assertThat(this.topicTable.get(uri)).isNull();
+		assertThat(this.topicTable.size()).isEqualTo(0);
+
+		// a new subscription after the eviction creates a new topic
+		Topic newTopic = this.topicTable.acquire(uri);
+		assertThat(newTopic).isNotSameAs(topic);
+		this.topicTable.release(uri);
+		assertThat(this.topicTable.get(uri)).isNull();
+	}
+
+	@Test
+	public void tablesAreIndependent() {
+		String uri = "http://example.com/topicTableTest/independent";
+		this.topicTable.acquire(uri);
+		assertThat(new TopicTable().get(uri)).isNull();
+	}
+
+	@Test
+	public void canonicalizeMessage() throws IOException {
+		String uri = "http://example.com/topicTableTest/canonical";
+		PublishMessage publishMessage = WampMessage.fromJson(this.jsonFactory,
+				"[7,\"http://example.com/topicTableTest/canonical\",1]");
+		this.topicTable.canonicalize(publishMessage);
+		assertThat(publishMessage.getTopic()).isNull();
+
+		Topic topic = this.topicTable.acquire(uri);
+		// decoding alone does not look up the topic
+		publishMessage = WampMessage.fromJson(this.jsonFactory,
+				"[7,\"http://example.com/topicTableTest/canonical\",1]");
+		assertThat(publishMessage.getTopic()).isNull();
+
+		this.topicTable.canonicalize(publishMessage);
+		assertThat(publishMessage.getTopic()).isSameAs(topic);
+		assertThat(publishMessage.getTopicURI()).isSameAs(topic.getUri());
+
+		EventMessage eventMessage = new EventMessage(publishMessage, "ws1");
+		assertThat(eventMessage.getTopicURI()).isSameAs(topic.getUri());
+		assertThat(eventMessage.toJson(this.jsonFactory))
+				.isEqualTo("[8,\"http://example.com/topicTableTest/canonical\",1]");
+	}
+
+	@Test
+	public void serializedUriIsEscaped() throws IOException {
+		String uri = "topicTableTest/\"quoted\"";
+		this.topicTable.acquire(uri);
+		EventMessage eventMessage = new EventMessage(uri, "value");
+		this.topicTable.canonicalize(eventMessage);
+		assertThat(eventMessage.getTopic()).isNotNull();
+		assertThat(eventMessage.toJson(this.jsonFactory))
+				.isEqualTo("[8,\"topicTableTest/\\\"quoted\\\"\",\"value\"]");
+	}
+
+	@Test
+	public void registriesReleaseTopics() {
+		testRegistry(new DefaultSubscriptionRegistry(new AntPathMatcher(),
+				this.topicTable));
+		testRegistry(new TrieSubscriptionRegistry(new AntPathMatcher(),
+				this.topicTable));
+	}
+
+	private void testRegistry(SubscriptionRegistry registry) {
+		String uri = "http://example.com/topicTableTest/registry";
+		registry.registerSubscription(subscribe(uri, "ws1"));
+		registry.registerSubscription(subscribe(uri, "ws1"));
+		registry.registerSubscription(subscribe(new String(uri), "ws2"));
+		assertThat(this.topicTable.get(uri)).isNotNull();
+
+		UnsubscribeMessage unsubscribeMessage = new UnsubscribeMessage(uri);
+		unsubscribeMessage.setWebSocketSessionId("ws1");
+		registry.unregisterSubscription(unsubscribeMessage);
+		assertThat(this.topicTable.get(uri)).isNotNull();
+
+		registry.unregisterSession("ws2");
+		assertThat(this.topicTable.get(uri)).isNull();
+	}
+
+	private static SubscribeMessage subscribe(String topicURI, String sessionId) {
+		SubscribeMessage subscribeMessage = new SubscribeMessage(topicURI);
+		subscribeMessage.setWebSocketSessionId(sessionId);
+		return subscribeMessage;
+	}
+
+}
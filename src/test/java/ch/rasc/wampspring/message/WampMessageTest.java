@@ -17,6 +17,8 @@ package ch.rasc.wampspring.message;
 
 import static org.assertj.core.api.Assertions.assertThat;
 
+import java.io.IOException;
+import java.io.StringWriter;
 import java.security.Principal;
 
 import org.assertj.core.data.MapEntry;
@@ -25,6 +27,10 @@ import org.mockito.Mockito;
 import org.springframework.messaging.MessageHeaders;
 import org.springframework.web.socket.WebSocketSession;
 
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.MappingJsonFactory;
+
 import ch.rasc.wampspring.config.WampSession;
 import ch.rasc.wampspring.testsupport.TestPrincipal;
 
@@ -87,4 +93,41 @@ public class WampMessageTest {
 				.isTrue();
 		assertThat(PubSubMessage.class.isAssignableFrom(WelcomeMessage.class)).isFalse();
 	}
+
+	@Test
+	public void subclassThatOverridesToJson() throws IOException {
+		JsonFactory jsonFactory = new MappingJsonFactory();
+		PubSubMessage message = new PubSubMessage(WampMessageType.EVENT, "topic") {
+			@Override
+			public String toJson(JsonFactory factory) {
+				return "[8,\"topic\",\"custom\"]";
+			}
+		};
+		assertThat(message.toTextMessage(jsonFactory).getPayload())
+				.isEqualTo("[8,\"topic\",\"custom\"]");
+	}
+
+	@Test
+	public void subclassThatOverridesToJsonWrittenToGenerator() throws IOException {
+		PubSubMessage message = new PubSubMessage(WampMessageType.EVENT, "topic") {
+			@Override
+			public String toJson(JsonFactory factory) {
+				return "[8,\"topic\",\"custom\"]";
+			}
+		};
+		StringWriter sw = new StringWriter();
+		try (JsonGenerator jg = new MappingJsonFactory().createGenerator(sw)) {
+			jg.writeStartArray();
+			message.writeJson(jg);
+			jg.writeEndArray();
+		}
+		assertThat(sw.toString()).isEqualTo("[[8,\"topic\",\"custom\"]]");
+	}
+
+	@Test(expected = UnsupportedOperationException.class)
+	public void subclassWithoutEncoder() throws IOException {
+		new PubSubMessage(WampMessageType.EVENT, "topic") {
+			// overrides neither writeJson nor toJson
+		}.toJson(new MappingJsonFactory());
+	}
 }
@@ -15,6 +15,15 @@
  */
 package ch.rasc.wampspring.method;
 
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.springframework.messaging.handler.annotation.DestinationVariable;
+
+import org.springframework.util.concurrent.ListenableFuture;
+import org.springframework.util.concurrent.SettableListenableFuture;
+
 import ch.rasc.wampspring.annotation.WampCallListener;
 import ch.rasc.wampspring.annotation.WampPublishListener;
 import ch.rasc.wampspring.annotation.WampSubscribeListener;
@@ -27,6 +36,44 @@ public class AnnotatedTestService {
 		return one + two;
 	}
 
+	@WampCallListener("annotatedTestService.multiply/{factor}")
+	public int multiply(@DestinationVariable int factor, int value) {
+		return factor * value;
+	}
+
+	@WampCallListener(value = "annotatedTestService.callAuthenticated", authenticated = true)
+	public int callAuthenticated() {
+		return 1;
+	}
+
+	static final SettableListenableFuture<Integer> pendingResult = new SettableListenableFuture<>();
+
+	@WampCallListener("annotatedTestService.callListenableFuture")
+	public ListenableFuture<Integer> callListenableFuture() {
+		return pendingResult;
+	}
+
+	@WampCallListener("annotatedTestService.callCompletableFuture")
+	public CompletableFuture<Integer> callCompletableFuture(int one, int two) {
+		return CompletableFuture.supplyAsync(() -> one + two);
+	}
+
+	static final List<SettableListenableFuture<Integer>> limitedResults = new CopyOnWriteArrayList<>();
+
+	@WampCallListener(value = "annotatedTestService.callLimited", maxConcurrentCalls = 1)
+	public ListenableFuture<Integer> callLimited() {
+		SettableListenableFuture<Integer> result = new SettableListenableFuture<>();
+		limitedResults.add(result);
+		return result;
+	}
+
+	@WampCallListener("annotatedTestService.callFailedFuture")
+	public CompletableFuture<Integer> callFailedFuture() {
+		CompletableFuture<Integer> result = new CompletableFuture<>();
+		result.completeExceptionally(new IllegalStateException("failed"));
+		return result;
+	}
+
 	@WampSubscribeListener
 	public int subscribe() {
 		return 2;
@@ -0,0 +1,162 @@
+/*
+ * Copyright 2002-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ch.rasc.wampspring.method;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+import org.springframework.format.support.DefaultFormattingConversionService;
+import org.springframework.messaging.handler.HandlerMethod;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import ch.rasc.wampspring.message.CallMessage;
+
+public class InvocableWampHandlerMethodTest {
+
+	private final MethodParameterConverter methodParameterConverter = new MethodParameterConverter(
+			new ObjectMapper(), new DefaultFormattingConversionService());
+
+	@Test
+	public void overriddenDoInvoke() throws Exception {
+		final List<Object> invokedArgs = new ArrayList<>();
+		InvocableWampHandlerMethod handlerMethod = new InvocableWampHandlerMethod(
+				handlerMethod("add", int.class, int.class),
+				this.methodParameterConverter) {
+			@Override
+			protected Object doInvoke(Object... args) throws Exception {
+				invokedArgs.addAll(Arrays.asList(args));
+				return super.doInvoke(args);
+			}
+		};
+
+		assertThat(handlerMethod.invoke(new CallMessage("1", "add"), 1, "2"))
+				.isEqualTo(3);
+		assertThat(invokedArgs).containsExactly(1, 2);
+	}
+
+	@Test
+	public void staticMethod() throws Exception {
+		InvocableWampHandlerMethod handlerMethod = new InvocableWampHandlerMethod(
+				handlerMethod("upper", String.class), this.methodParameterConverter);
+		assertThat(handlerMethod.doInvoke("abc")).isEqualTo("ABC");
+		assertThat(handlerMethod.invoke(new CallMessage("1", "upper"), "def"))
+				.isEqualTo("DEF");
+	}
+
+	@Test
+	public void argumentTypeMismatch() throws Exception {
+		InvocableWampHandlerMethod handlerMethod = new InvocableWampHandlerMethod(
+				handlerMethod("add", int.class, int.class),
+				this.methodParameterConverter);
+		try {
+			handlerMethod.doInvoke("1", 2);
+			fail("IllegalStateException expected");
+		}
+		catch (IllegalStateException e) {
+			assertThat(e.getMessage()).startsWith("argument type mismatch")
+					.contains("[0] [type=java.lang.String] [value=1]");
+		}
+	}
+
+	@Test
+	public void nullForPrimitiveParameter() throws Exception {
+		InvocableWampHandlerMethod handlerMethod = new InvocableWampHandlerMethod(
+				handlerMethod("add", int.class, int.class),
+				this.methodParameterConverter);
+		try {
+			handlerMethod.doInvoke(null, 2);
+			fail("IllegalStateException expected");
+		}
+		catch (IllegalStateException e) {
+			assertThat(e.getMessage()).startsWith("argument type mismatch")
+					.contains("[0] [null]");
+		}
+	}
+
+	@Test
+	public void exceptionsOfTheMethodAreUnwrapped() throws Exception {
+		InvocableWampHandlerMethod checked = new InvocableWampHandlerMethod(
+				handlerMethod("failChecked"), this.methodParameterConverter);
+		try {
+			checked.doInvoke();
+			fail("IOException expected");
+		}
+		catch (IOException e) {
+			assertThat(e.getMessage()).isEqualTo("checked");
+		}
+
+		// thrown by the method itself, not mapped to an argument type mismatch
+		InvocableWampHandlerMethod unchecked = new InvocableWampHandlerMethod(
+				handlerMethod("failUnchecked", String.class),
+				this.methodParameterConverter);
+		try {
+			unchecked.doInvoke("x");
+			fail("NullPointerException expected");
+		}
+		catch (NullPointerException e) {
+			assertThat(e.getMessage()).isEqualTo("x");
+		}
+
+		InvocableWampHandlerMethod error = new InvocableWampHandlerMethod(
+				handlerMethod("failError"), this.methodParameterConverter);
+		try {
+			error.doInvoke();
+			fail("AssertionError expected");
+		}
+		catch (AssertionError e) {
+			assertThat(e.getMessage()).isEqualTo("error");
+		}
+	}
+
+	private static HandlerMethod handlerMethod(String name, Class<?>... parameterTypes)
+			throws NoSuchMethodException {
+		Method method = TestHandler.class.getMethod(name, parameterTypes);
+		return new HandlerMethod(new TestHandler(), method);
+	}
+
+	public static class TestHandler {
+
+		public int add(int a, int b) {
+			return a + b;
+		}
+
+		public static String upper(String s) {
+			return s.toUpperCase();
+		}
+
+		public void failChecked() throws IOException {
+			throw new IOException("checked");
+		}
+
+		public void failUnchecked(String message) {
+			throw new NullPointerException(message);
+		}
+
+		public void failError() {
+			throw new AssertionError("error");
+		}
+
+	}
+
+}
@@ -16,10 +16,12 @@
 package ch.rasc.wampspring.method;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 
 import java.lang.reflect.Method;
 import java.math.BigDecimal;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -27,12 +29,17 @@ import java.util.Optional;
 
 import org.junit.Before;
 import org.junit.Test;
+import org.springframework.core.GenericTypeResolver;
 import org.springframework.core.MethodParameter;
 import org.springframework.core.convert.ConversionFailedException;
 import org.springframework.format.support.DefaultFormattingConversionService;
 
+import com.fasterxml.jackson.databind.MappingJsonFactory;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
+import ch.rasc.wampspring.message.CallMessage;
+import ch.rasc.wampspring.message.WampMessage;
+
 @SuppressWarnings("unused")
 public class MethodParameterConverterTest {
 
@@ -209,6 +216,51 @@ public class MethodParameterConverterTest {
 				.hasSize(3).containsExactly("1", "2", "3");
 	}
 
+	@SuppressWarnings("rawtypes")
+	@Test
+	public void testToRawList() throws NoSuchMethodException, SecurityException {
+		Method testMethod = getClass().getDeclaredMethod("rawListParam", List.class);
+		MethodParameter param = new MethodParameter(testMethod, 0);
+		assertThat((List) this.converter.convert(param, Arrays.asList(1, "2")))
+				.containsExactly(1, "2");
+		assertThat((List) this.converter.convert(param, "1")).containsExactly("1");
+	}
+
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	@Test
+	public void testDeferredJsonArguments() throws Exception {
+		CallMessage callMessage = WampMessage.fromJson(new MappingJsonFactory(),
+				"[2,\"id\",\"proc\",{\"v1\":\"str\",\"v2\":1,\"v3\":2,\"v4\":3.1},"
+						+ "[1,2,3],{\"a\":1}]");
+		List<Object> arguments = callMessage.getRawArguments();
+
+		Method testMethod = getClass().getDeclaredMethod("dtoParam", TestDto.class);
+		MethodParameter param = new MethodParameter(testMethod, 0);
+		TestDto dto = new TestDto();
+		dto.setV1("str");
+		dto.setV2(1);
+		dto.setV3(Integer.valueOf(2));
+		dto.setV4(new BigDecimal("3.1"));
+		assertThat(this.converter.convert(param, arguments.get(0))).isEqualTo(dto);
+
+		testMethod = getClass().getDeclaredMethod("listParam", List.class);
+		param = new MethodParameter(testMethod, 0);
+		assertThat((List) this.converter.convert(param, arguments.get(1))).hasSize(3)
+				.containsExactly("1", "2", "3");
+
+		// a JSON object can't be read into a String, the decoded value is converted
+		// like any other argument
+		testMethod = getClass().getDeclaredMethod("stringParam", String.class);
+		final MethodParameter stringParam = new MethodParameter(testMethod, 0);
+		assertThatThrownBy(() -> this.converter.convert(stringParam, arguments.get(2)))
+				.isInstanceOf(IllegalArgumentException.class);
+
+		testMethod = getClass().getDeclaredMethod("OptionalParam", Optional.class);
+		param = new MethodParameter(testMethod, 0);
+		Object value = this.converter.convert(param, arguments.get(2));
+		assertThat(((Optional) value).get()).isEqualTo(Collections.singletonMap("a", 1));
+	}
+
 	private void stringParam(String param) {
 		// nothing here
 	}
@@ -237,6 +289,39 @@ public class MethodParameterConverterTest {
 		// nothing here
 	}
 
+	@SuppressWarnings("rawtypes")
+	private void rawListParam(List list) {
+		// nothing here
+	}
+
+	@Test
+	public void testInheritedGenericParameter() throws NoSuchMethodException {
+		Method method = GenericHandler.class.getMethod("handle", Object.class);
+
+		MethodParameter integerParam = new MethodParameter(method, 0);
+		GenericTypeResolver.resolveParameterType(integerParam, IntegerHandler.class);
+		MethodParameter stringParam = new MethodParameter(method, 0);
+		GenericTypeResolver.resolveParameterType(stringParam, StringHandler.class);
+
+		assertThat(this.converter.convert(integerParam, "12")).isEqualTo(12);
+		assertThat(this.converter.convert(stringParam, 12)).isEqualTo("12");
+		assertThat(this.converter.convert(integerParam, 13L)).isEqualTo(13);
+	}
+
+	public static class GenericHandler<T> {
+		public void handle(T value) {
+			// nothing here
+		}
+	}
+
+	public static class IntegerHandler extends GenericHandler<Integer> {
+		// nothing here
+	}
+
+	public static class StringHandler extends GenericHandler<String> {
+		// nothing here
+	}
+
 	private static class TestDto {
 		private String v1;
 		private int v2;
@@ -17,16 +17,21 @@ package ch.rasc.wampspring.method;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyZeroInteractions;
 import static org.mockito.Mockito.when;
 
+import java.util.List;
+
 import org.junit.Before;
 import org.junit.Test;
 import org.mockito.ArgumentCaptor;
 import org.mockito.Captor;
 import org.mockito.Mock;
+import org.mockito.Mockito;
 import org.mockito.MockitoAnnotations;
 import org.springframework.context.support.StaticApplicationContext;
 import org.springframework.format.support.DefaultFormattingConversionService;
@@ -34,11 +39,14 @@ import org.springframework.messaging.MessageChannel;
 import org.springframework.messaging.SubscribableChannel;
 import org.springframework.messaging.converter.GenericMessageConverter;
 import org.springframework.util.AntPathMatcher;
+import org.springframework.web.socket.WebSocketSession;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 
 import ch.rasc.wampspring.EventMessenger;
 import ch.rasc.wampspring.config.WampMessageSelectors;
+import ch.rasc.wampspring.config.WampSession;
+import ch.rasc.wampspring.message.CallErrorMessage;
 import ch.rasc.wampspring.message.CallMessage;
 import ch.rasc.wampspring.message.CallResultMessage;
 import ch.rasc.wampspring.message.EventMessage;
@@ -46,6 +54,7 @@ import ch.rasc.wampspring.message.PublishMessage;
 import ch.rasc.wampspring.message.SubscribeMessage;
 import ch.rasc.wampspring.message.UnsubscribeMessage;
 import ch.rasc.wampspring.message.WampMessage;
+import ch.rasc.wampspring.message.WampMessageHeader;
 
 /**
  * @author Brian Clozel
@@ -113,6 +122,159 @@ public class WampAnnotationMethodMessageHandlerTest {
 		assertThat(result.getResult()).isEqualTo(3);
 	}
 
+	@Test
+	public void testCallWithTemplateVariable() {
+		this.messageHandler.handleMessage(
+				new CallMessage("call1", "annotatedTestService.multiply/2", 5));
+		this.messageHandler.handleMessage(
+				new CallMessage("call2", "annotatedTestService.multiply/3", 5));
+		// served from the dispatch cache
+		this.messageHandler.handleMessage(
+				new CallMessage("call3", "annotatedTestService.multiply/2", 7));
+		// same destination, but no handler for this message type
+		this.messageHandler.handleMessage(
+				new SubscribeMessage("annotatedTestService.multiply/2"));
+
+		verifyZeroInteractions(this.eventMessenger);
+		verify(this.clientOutboundChannel, times(3)).send(this.messageCaptor.capture());
+		List<WampMessage> results = this.messageCaptor.getAllValues();
+		assertThat(((CallResultMessage) results.get(0)).getResult()).isEqualTo(10);
+		assertThat(((CallResultMessage) results.get(1)).getResult()).isEqualTo(15);
+		assertThat(((CallResultMessage) results.get(2)).getResult()).isEqualTo(14);
+	}
+
+	@Test
+	public void testCallListenableFuture() {
+		this.messageHandler.handleMessage(
+				new CallMessage("call1", "annotatedTestService.callListenableFuture"));
+		verify(this.clientOutboundChannel, never()).send(any(WampMessage.class));
+
+		AnnotatedTestService.pendingResult.set(42);
+		verify(this.clientOutboundChannel, times(1)).send(this.messageCaptor.capture());
+		CallResultMessage result = (CallResultMessage) this.messageCaptor.getValue();
+		assertThat(result.getCallID()).isEqualTo("call1");
+		assertThat(result.getResult()).isEqualTo(42);
+	}
+
+	@Test
+	public void testCallCompletableFuture() {
+		this.messageHandler.handleMessage(new CallMessage("call1",
+				"annotatedTestService.callCompletableFuture", 3, 4));
+
+		verify(this.clientOutboundChannel, timeout(5000).times(1))
+				.send(this.messageCaptor.capture());
+		CallResultMessage result = (CallResultMessage) this.messageCaptor.getValue();
+		assertThat(result.getCallID()).isEqualTo("call1");
+		assertThat(result.getResult()).isEqualTo(7);
+	}
+
+	@Test
+	public void testCallFailedFuture() {
+		this.messageHandler.handleMessage(
+				new CallMessage("call1", "annotatedTestService.callFailedFuture"));
+
+		verify(this.clientOutboundChannel, times(1)).send(this.messageCaptor.capture());
+		CallErrorMessage error = (CallErrorMessage) this.messageCaptor.getValue();
+		assertThat(error.getCallID()).isEqualTo("call1");
+		assertThat(error.getErrorDesc())
+				.isEqualTo("java.lang.IllegalStateException: failed");
+	}
+
+	@Test
+	public void testProcedureConcurrencyLimit() {
+		AnnotatedTestService.limitedResults.clear();
+		this.messageHandler.handleMessage(
+				new CallMessage("call1", "annotatedTestService.callLimited"));
+		this.messageHandler.handleMessage(
+				new CallMessage("call2", "annotatedTestService.callLimited"));
+		// other procedures are not affected
+		this.messageHandler.handleMessage(
+				new CallMessage("call3", "annotatedTestService.call", 1, 2));
+
+		AnnotatedTestService.limitedResults.get(0).set(1);
+		this.messageHandler.handleMessage(
+				new CallMessage("call4", "annotatedTestService.callLimited"));
+		AnnotatedTestService.limitedResults.get(1).set(4);
+
+		assertThat(AnnotatedTestService.limitedResults).hasSize(2);
+		verify(this.clientOutboundChannel, times(4)).send(this.messageCaptor.capture());
+		List<WampMessage> results = this.messageCaptor.getAllValues();
+		CallErrorMessage error = (CallErrorMessage) results.get(0);
+		assertThat(error.getCallID()).isEqualTo("call2");
+		assertThat(error.getErrorURI())
+				.isEqualTo(WampAnnotationMethodMessageHandler.OVERLOADED_ERROR_URI);
+		assertThat(((CallResultMessage) results.get(1)).getCallID()).isEqualTo("call3");
+		assertThat(((CallResultMessage) results.get(2)).getCallID()).isEqualTo("call1");
+		assertThat(((CallResultMessage) results.get(3)).getCallID()).isEqualTo("call4");
+	}
+
+	@Test
+	public void testGlobalConcurrencyLimit() {
+		AnnotatedTestService.limitedResults.clear();
+		this.messageHandler.setMaxConcurrentCalls(1);
+		this.messageHandler.handleMessage(
+				new CallMessage("call1", "annotatedTestService.callLimited"));
+		this.messageHandler.handleMessage(
+				new CallMessage("call2", "annotatedTestService.call", 1, 2));
+
+		AnnotatedTestService.limitedResults.get(0).set(1);
+		this.messageHandler.handleMessage(
+				new CallMessage("call3", "annotatedTestService.call", 1, 2));
+
+		verify(this.clientOutboundChannel, times(3)).send(this.messageCaptor.capture());
+		List<WampMessage> results = this.messageCaptor.getAllValues();
+		CallErrorMessage error = (CallErrorMessage) results.get(0);
+		assertThat(error.getCallID()).isEqualTo("call2");
+		assertThat(error.getErrorURI())
+				.isEqualTo(WampAnnotationMethodMessageHandler.OVERLOADED_ERROR_URI);
+		assertThat(((CallResultMessage) results.get(1)).getCallID()).isEqualTo("call1");
+		assertThat(((CallResultMessage) results.get(2)).getCallID()).isEqualTo("call3");
+	}
+
+	@Test
+	public void testUnauthenticatedCallIsNotAdmitted() {
+		AnnotatedTestService.limitedResults.clear();
+		this.messageHandler.setMaxConcurrentCalls(1);
+		this.messageHandler.handleMessage(
+				new CallMessage("call1", "annotatedTestService.callLimited"));
+
+		CallMessage unauthenticated = new CallMessage("call2",
+				"annotatedTestService.callAuthenticated");
+		unauthenticated.setHeader(WampMessageHeader.WAMP_SESSION,
+				new WampSession(Mockito.mock(WebSocketSession.class)));
+		this.messageHandler.handleMessage(unauthenticated);
+
+		AnnotatedTestService.limitedResults.get(0).set(1);
+
+		verify(this.clientOutboundChannel, times(2)).send(this.messageCaptor.capture());
+		List<WampMessage> results = this.messageCaptor.getAllValues();
+		CallErrorMessage error = (CallErrorMessage) results.get(0);
+		assertThat(error.getCallID()).isEqualTo("call2");
+		assertThat(error.getErrorURI()).isEmpty();
+		assertThat(error.getErrorDesc())
+				.isEqualTo("java.lang.SecurityException: Not authenticated");
+		assertThat(((CallResultMessage) results.get(1)).getCallID()).isEqualTo("call1");
+	}
+
+	@Test
+	public void testMaxCallQueueTime() {
+		this.messageHandler.setMaxCallQueueTime(1000);
+		CallMessage expired = new CallMessage("call1", "annotatedTestService.call", 1, 2);
+		expired.setReceivedNanoTime(System.nanoTime() - 2_000_000_000L);
+		this.messageHandler.handleMessage(expired);
+		CallMessage fresh = new CallMessage("call2", "annotatedTestService.call", 1, 2);
+		fresh.setReceivedNanoTime(System.nanoTime());
+		this.messageHandler.handleMessage(fresh);
+
+		verify(this.clientOutboundChannel, times(2)).send(this.messageCaptor.capture());
+		List<WampMessage> results = this.messageCaptor.getAllValues();
+		CallErrorMessage error = (CallErrorMessage) results.get(0);
+		assertThat(error.getCallID()).isEqualTo("call1");
+		assertThat(error.getErrorURI())
+				.isEqualTo(WampAnnotationMethodMessageHandler.OVERLOADED_ERROR_URI);
+		assertThat(((CallResultMessage) results.get(1)).getResult()).isEqualTo(3);
+	}
+
 	@Test
 	public void testSubscribe() {
 		SubscribeMessage subscribeMessage = new SubscribeMessage(
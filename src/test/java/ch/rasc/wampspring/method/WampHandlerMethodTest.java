@@ -0,0 +1,53 @@
+/*
+ * Copyright 2002-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ch.rasc.wampspring.method;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.lang.reflect.Method;
+
+import org.junit.Test;
+import org.springframework.context.support.StaticApplicationContext;
+
+public class WampHandlerMethodTest {
+
+	@Test
+	public void resolveBean() throws NoSuchMethodException {
+		StaticApplicationContext applicationContext = new StaticApplicationContext();
+		applicationContext.registerSingleton("singletonService",
+				AnnotatedTestService.class);
+		applicationContext.registerPrototype("prototypeService",
+				AnnotatedTestService.class);
+		applicationContext.refresh();
+
+		Method method = AnnotatedTestService.class.getMethod("call", int.class,
+				int.class);
+
+		WampHandlerMethod singleton = new WampHandlerMethod("singletonService",
+				applicationContext, method, null, null, null, false);
+		assertThat(singleton.resolveBean()).isInstanceOf(AnnotatedTestService.class)
+				.isSameAs(singleton.resolveBean())
+				.isSameAs(applicationContext.getBean("singletonService"));
+
+		WampHandlerMethod prototype = new WampHandlerMethod("prototypeService",
+				applicationContext, method, null, null, null, false);
+		assertThat(prototype.resolveBean()).isInstanceOf(AnnotatedTestService.class)
+				.isNotSameAs(prototype.resolveBean());
+
+		applicationContext.close();
+	}
+
+}